@@ -0,0 +1,116 @@
+package com.robrua.orianna.store;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.robrua.orianna.type.exception.OriannaException;
+
+/**
+ * Spreads keys across shards using a consistent hash ring, so adding a shard
+ * only moves about 1/N of the keys. Objects of every type can live on any
+ * shard.
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public class ConsistentHashShardStrategy implements ShardStrategy {
+    /**
+     * The hash ring for one shard count
+     */
+    private static class Ring {
+        private final TreeMap<Long, Integer> points;
+        private final int shardCount;
+
+        /**
+         * @param shardCount
+         *            the number of shards
+         * @param virtualNodes
+         *            the number of points each shard gets on the ring
+         */
+        public Ring(final int shardCount, final int virtualNodes) {
+            this.shardCount = shardCount;
+            points = new TreeMap<>();
+            for(int shard = 0; shard < shardCount; shard++) {
+                for(int node = 0; node < virtualNodes; node++) {
+                    points.put(hash("shard-" + shard + "-" + node), shard);
+                }
+            }
+        }
+
+        /**
+         * @param key
+         *            the key to find a shard for
+         * @return the index of the shard for that key
+         */
+        public int getShard(final Object key) {
+            final Map.Entry<Long, Integer> point = points.ceilingEntry(hash(key.toString()));
+            return point == null ? points.firstEntry().getValue() : point.getValue();
+        }
+    }
+
+    private static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    /**
+     * @param value
+     *            the value to hash
+     * @return a well-distributed 64-bit hash of the value
+     */
+    private static long hash(final String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long hash = 0L;
+            for(int i = 0; i < 8; i++) {
+                hash = hash << 8 | digest[i] & 0xFF;
+            }
+            return hash;
+        }
+        catch(final NoSuchAlgorithmException e) {
+            throw new OriannaException("Couldn't hash shard key");
+        }
+    }
+
+    private volatile Ring ring;
+    private final int virtualNodes;
+
+    /**
+     *
+     */
+    public ConsistentHashShardStrategy() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes
+     *            the number of points each shard gets on the hash ring. More
+     *            points spread keys more evenly.
+     */
+    public ConsistentHashShardStrategy(final int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    @Override
+    public int getShard(final Class<?> type, final Object key, final int shardCount) {
+        if(key == null || shardCount == 1) {
+            return 0;
+        }
+
+        Ring current = ring;
+        if(current == null || current.shardCount != shardCount) {
+            current = new Ring(shardCount, virtualNodes);
+            ring = current;
+        }
+
+        return current.getShard(key);
+    }
+
+    @Override
+    public int[] getShards(final Class<?> type, final int shardCount) {
+        final int[] shards = new int[shardCount];
+        for(int i = 0; i < shardCount; i++) {
+            shards[i] = i;
+        }
+        return shards;
+    }
+}
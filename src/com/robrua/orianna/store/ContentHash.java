@@ -0,0 +1,95 @@
+package com.robrua.orianna.store;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+@Entity
+@Table(name = "contenthash")
+public class ContentHash {
+    private long hash;
+    @Id
+    private String id;
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof ContentHash)) {
+            return false;
+        }
+        final ContentHash other = (ContentHash)obj;
+        if(hash != other.hash) {
+            return false;
+        }
+        if(id == null) {
+            if(other.id != null) {
+                return false;
+            }
+        }
+        else if(!id.equals(other.id)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the hash
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int)(hash ^ hash >>> 32);
+        result = prime * result + (id == null ? 0 : id.hashCode());
+        return result;
+    }
+
+    /**
+     * @param hash
+     *            the hash to set
+     */
+    public void setHash(final long hash) {
+        this.hash = hash;
+    }
+
+    /**
+     * @param id
+     *            the id to set
+     */
+    public void setId(final String id) {
+        this.id = id;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return id + ": " + hash;
+    }
+}
@@ -0,0 +1,23 @@
+package com.robrua.orianna.store;
+
+/**
+ * How a {@link HibernateDB} keeps track of what it has already stored, so it
+ * can skip writes of objects that haven't changed
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public enum ContentHashMode {
+    /**
+     * Keep content hashes in memory only. They are lost when the DB is closed.
+     */
+    MEMORY,
+    /**
+     * Don't skip any writes
+     */
+    NONE,
+    /**
+     * Keep content hashes in memory and in the contenthash table, so they
+     * survive restarts
+     */
+    PERSISTENT
+}
@@ -0,0 +1,277 @@
+package com.robrua.orianna.store;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.hibernate.criterion.Restrictions;
+
+import com.robrua.orianna.type.exception.OriannaException;
+
+/**
+ * Remembers a content hash for every row a {@link HibernateDB} has stored,
+ * keyed by the dto class and entity id, so writes of unchanged objects can be
+ * skipped. Hashes are kept in a fixed-size in-memory cache keyed by a 64-bit
+ * hash of the id, and optionally in the contenthash table.
+ *
+ * The cache is two primitive long arrays indexed by the id hash, so it takes
+ * 16 bytes per slot no matter how many objects are stored. A new hash replaces
+ * whatever was in its slot. An evicted hash just means the next store of that
+ * object is written again (or, for persistent hashes, checked against the
+ * table).
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public class ContentHashes {
+    /**
+     * Throws away everything written to it
+     */
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(final byte[] b, final int off, final int len) {}
+
+        @Override
+        public void write(final int b) {}
+    }
+
+    private static final int DEFAULT_CAPACITY = 1 << 20;
+    private static final long EMPTY = 0L;
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAX_IN_SIZE = 500;
+
+    /**
+     * @param dto
+     *            the dto to hash
+     * @return a 64-bit hash of the dto's serialized content, or null if it
+     *         can't be serialized
+     */
+    public static Long hash(final Object dto) {
+        try {
+            final DigestOutputStream digest = new DigestOutputStream(new NullOutputStream(), MessageDigest.getInstance("MD5"));
+            try(ObjectOutputStream out = new ObjectOutputStream(digest)) {
+                out.writeObject(dto);
+            }
+
+            final byte[] bytes = digest.getMessageDigest().digest();
+            long hash = 0L;
+            for(int i = 0; i < 8; i++) {
+                hash = hash << 8 | bytes[i] & 0xFF;
+            }
+            return hash;
+        }
+        catch(final IOException e) {
+            return null;
+        }
+        catch(final NoSuchAlgorithmException e) {
+            throw new OriannaException("Couldn't hash dto");
+        }
+    }
+
+    /**
+     * Content hashes are kept per row rather than per lookup key, so an object
+     * stored under several keys (like a summoner by id and by name) has a
+     * single hash, and deleting the row through any key forgets it.
+     *
+     * @param session
+     *            the session the dto will be written with
+     * @param dto
+     *            the dto
+     * @return the id of the content hash for the dto's row, or null if the dto
+     *         doesn't have an assigned, simple entity id to track it by
+     */
+    public static String id(final Session session, final Object dto) {
+        final Serializable id = HibernateDB.getEntityId(session, dto);
+        return id == null ? null : dto.getClass().getName() + ":" + id;
+    }
+
+    /**
+     * @param id
+     *            a content hash id
+     * @return a 64-bit FNV-1a hash of the id, used to key the in-memory hashes
+     */
+    private static long idHash(final String id) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        // 0 marks an empty slot
+        return hash == EMPTY ? 1L : hash;
+    }
+
+    private final long[] hashes;
+    private final long[] keys;
+    private final Object[] locks;
+    private final int mask;
+    private final boolean persistent;
+
+    /**
+     * Creates content hashes with room for about a million objects in memory
+     * (16MB)
+     *
+     * @param persistent
+     *            whether hashes are also stored in the contenthash table
+     */
+    public ContentHashes(final boolean persistent) {
+        this(persistent, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param persistent
+     *            whether hashes are also stored in the contenthash table
+     * @param capacity
+     *            the number of hashes to keep in memory, rounded up to a power
+     *            of two
+     */
+    public ContentHashes(final boolean persistent, final int capacity) {
+        this.persistent = persistent;
+        final int size = Integer.highestOneBit(Math.max(LOCK_STRIPES, capacity - 1) << 1);
+        hashes = new long[size];
+        keys = new long[size];
+        mask = size - 1;
+        locks = new Object[LOCK_STRIPES];
+        for(int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @param id
+     *            the content hash id
+     * @param hash
+     *            the content hash
+     * @return the entity to persist alongside the stored object, or null if
+     *         hashes aren't persistent
+     */
+    public ContentHash entity(final String id, final long hash) {
+        if(!persistent) {
+            return null;
+        }
+
+        final ContentHash entity = new ContentHash();
+        entity.setId(id);
+        entity.setHash(hash);
+        return entity;
+    }
+
+    /**
+     * Looks up the stored hashes for some ids, going to the contenthash table
+     * for any that aren't in memory if hashes are persistent
+     *
+     * @param ids
+     *            the content hash ids
+     * @param session
+     *            the session to look up persisted hashes with
+     * @return the stored hashes for the ids that have one
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Long> get(final Collection<String> ids, final Session session) {
+        final Map<String, Long> stored = new HashMap<>();
+        final List<String> missing = new ArrayList<>();
+        for(final String id : ids) {
+            final Long hash = lookup(idHash(id));
+            if(hash != null) {
+                stored.put(id, hash);
+            }
+            else {
+                missing.add(id);
+            }
+        }
+
+        if(!persistent || missing.isEmpty()) {
+            return stored;
+        }
+
+        for(int i = 0; i < missing.size(); i += MAX_IN_SIZE) {
+            final List<String> chunk = missing.subList(i, Math.min(i + MAX_IN_SIZE, missing.size()));
+            for(final ContentHash hash : (List<ContentHash>)session.createCriteria(ContentHash.class).add(Restrictions.in("id", chunk)).list()) {
+                put(idHash(hash.getId()), hash.getHash());
+                stored.put(hash.getId(), hash.getHash());
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * @return whether hashes are also stored in the contenthash table
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * @param key
+     *            the hash of a content hash id
+     * @return the cached content hash for it, or null if it isn't cached
+     */
+    private Long lookup(final long key) {
+        final int slot = slot(key);
+        synchronized(locks[slot & LOCK_STRIPES - 1]) {
+            return keys[slot] == key ? hashes[slot] : null;
+        }
+    }
+
+    /**
+     * Caches a content hash, replacing whatever was in its slot
+     *
+     * @param key
+     *            the hash of a content hash id
+     * @param hash
+     *            the content hash
+     */
+    private void put(final long key, final long hash) {
+        final int slot = slot(key);
+        synchronized(locks[slot & LOCK_STRIPES - 1]) {
+            keys[slot] = key;
+            hashes[slot] = hash;
+        }
+    }
+
+    /**
+     * Remembers hashes for objects that were just written
+     *
+     * @param written
+     *            the content hash ids and hashes
+     */
+    public void putAll(final Map<String, Long> written) {
+        for(final Map.Entry<String, Long> entry : written.entrySet()) {
+            put(idHash(entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * Forgets the hash for an object that was deleted
+     *
+     * @param id
+     *            the content hash id
+     */
+    public void remove(final String id) {
+        final long key = idHash(id);
+        final int slot = slot(key);
+        synchronized(locks[slot & LOCK_STRIPES - 1]) {
+            if(keys[slot] == key) {
+                keys[slot] = EMPTY;
+            }
+        }
+    }
+
+    /**
+     * @param key
+     *            the hash of a content hash id
+     * @return the cache slot for it
+     */
+    private int slot(final long key) {
+        // The low bits of FNV-1a are weak, so fold the high bits in
+        return (int)(key ^ key >>> 32) & mask;
+    }
+}
@@ -0,0 +1,310 @@
+package com.robrua.orianna.store;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.Session;
+
+/**
+ * Decides when a {@link HibernateDB} flushes and clears its session while
+ * saving. Instead of asking the session for its entity count after every
+ * merge, the policy keeps an estimate of how many entities each class brings
+ * into the session (sampled the first time a class is merged) and adds those
+ * up, on top of the session's real count when the batch started, which covers
+ * entities loaded by reads. The session is only asked for its real count again
+ * when it's flushed, and that count corrects the estimates.
+ *
+ * A fixed policy flushes once the estimated count reaches the entity
+ * threshold. An adaptive policy also adjusts the threshold after every flush
+ * to keep flushes near a target latency and the heap under a budget. Heap use
+ * is measured as what was left after the last garbage collection, so garbage
+ * that hasn't been collected yet doesn't count against the budget. Once the
+ * heap is back under budget, a threshold that was cut for it climbs back to
+ * where it was.
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public class FlushPolicy {
+    /**
+     * What a thread has merged since its session was last cleared
+     */
+    private static class Batch {
+        private double base = 0.0;
+        private final Map<Class<?>, Integer> counts = new HashMap<>();
+        private double entities = 0.0;
+        private boolean started = false;
+    }
+
+    private static final double ESTIMATE_WEIGHT = 0.5;
+    private static final long HEAP_CHECK_NANOS = 100000000L;
+    private static final int MAX_THRESHOLD = 100000;
+    private static final int MIN_THRESHOLD = 10;
+
+    /**
+     * @return the heap pools that report their usage after a garbage
+     *         collection
+     */
+    private static List<MemoryPoolMXBean> collectedHeapPools() {
+        final List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for(final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private final boolean adaptive;
+    private final ThreadLocal<Batch> batch;
+    private final Map<Class<?>, Double> estimates;
+    private final double heapBudget;
+    private final List<MemoryPoolMXBean> heapPools;
+    private volatile long heapCheckedAt;
+    private volatile int heapRecoveryThreshold = 0;
+    private volatile long lastFlushMillis = 0L;
+    private volatile boolean overHeapBudget = false;
+    private final long targetFlushMillis;
+    private volatile int threshold;
+
+    /**
+     * Creates a fixed policy
+     *
+     * @param threshold
+     *            the number of managed entities to flush and clear at
+     */
+    public FlushPolicy(final int threshold) {
+        this(threshold, false, 0L, 1.0);
+    }
+
+    /**
+     * @param threshold
+     *            the number of managed entities to flush and clear at. For an
+     *            adaptive policy this is just the starting point.
+     * @param adaptive
+     *            whether to adjust the threshold after every flush
+     * @param targetFlushMillis
+     *            how long a flush should take
+     * @param heapBudget
+     *            the fraction of the max heap the JVM should stay under
+     *            before flushing
+     */
+    public FlushPolicy(final int threshold, final boolean adaptive, final long targetFlushMillis, final double heapBudget) {
+        this.threshold = threshold;
+        this.adaptive = adaptive;
+        this.targetFlushMillis = targetFlushMillis;
+        this.heapBudget = heapBudget;
+        batch = new ThreadLocal<Batch>() {
+            @Override
+            protected Batch initialValue() {
+                return new Batch();
+            }
+        };
+        estimates = new ConcurrentHashMap<>();
+        heapPools = collectedHeapPools();
+        heapCheckedAt = System.nanoTime() - HEAP_CHECK_NANOS;
+    }
+
+    /**
+     * Tells the policy the current thread's session was cleared or replaced
+     * outside of the policy
+     */
+    public void cleared() {
+        batch.remove();
+    }
+
+    /**
+     * Flushes and clears the session, then uses what it sees to correct the
+     * estimates and (if adaptive) the threshold
+     *
+     * @param session
+     *            the session to flush
+     * @param current
+     *            the current thread's batch
+     */
+    private void flush(final Session session, final Batch current) {
+        final int actual = session.getStatistics().getEntityCount();
+        final boolean overBudget = isOverHeapBudget();
+        overHeapBudget = overBudget;
+        heapCheckedAt = System.nanoTime();
+
+        final long start = System.nanoTime();
+        session.flush();
+        session.clear();
+        final long millis = (System.nanoTime() - start) / 1000000L;
+        lastFlushMillis = millis;
+
+        final double merged = current.entities - current.base;
+        if(merged > 0.0 && actual > current.base) {
+            final double ratio = (actual - current.base) / merged;
+            for(final Class<?> clazz : current.counts.keySet()) {
+                final Double estimate = estimates.get(clazz);
+                if(estimate != null) {
+                    estimates.put(clazz, Math.max(1.0, estimate * (1.0 - ESTIMATE_WEIGHT + ESTIMATE_WEIGHT * ratio)));
+                }
+            }
+        }
+        batch.remove();
+
+        if(adaptive) {
+            int next = threshold;
+            if(overBudget) {
+                heapRecoveryThreshold = Math.max(heapRecoveryThreshold, next);
+                next /= 2;
+            }
+            else if(millis > targetFlushMillis) {
+                // Latency is the limit now, so don't climb back past it
+                heapRecoveryThreshold = 0;
+                next = (int)Math.max(next / 2L, next * targetFlushMillis / millis);
+            }
+            else if(next < heapRecoveryThreshold) {
+                next = Math.min(heapRecoveryThreshold, next * 2);
+                if(next == heapRecoveryThreshold) {
+                    heapRecoveryThreshold = 0;
+                }
+            }
+            else if(millis < targetFlushMillis / 2L) {
+                next += next / 4;
+            }
+            threshold = Math.max(MIN_THRESHOLD, Math.min(MAX_THRESHOLD, next));
+        }
+    }
+
+    /**
+     * @param clazz
+     *            an entity class
+     * @return the estimated number of entities one object of that class brings
+     *         into the session, or null if it hasn't been merged yet
+     */
+    public Double getEntityEstimate(final Class<?> clazz) {
+        return estimates.get(clazz);
+    }
+
+    /**
+     * @return the number of managed entities the session is flushed and
+     *         cleared at
+     */
+    public int getFlushThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return the fraction of the max heap the JVM should stay under
+     */
+    public double getHeapBudget() {
+        return heapBudget;
+    }
+
+    /**
+     * @return how long the last flush took
+     */
+    public long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    /**
+     * @return how long a flush should take
+     */
+    public long getTargetFlushMillis() {
+        return targetFlushMillis;
+    }
+
+    /**
+     * @return whether the threshold is adjusted after every flush
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return whether the heap was over budget after the last garbage
+     *         collection. Always false if the JVM doesn't report heap usage
+     *         after collections.
+     */
+    private boolean isOverHeapBudget() {
+        if(heapPools.isEmpty()) {
+            return false;
+        }
+
+        long used = 0L;
+        for(final MemoryPoolMXBean pool : heapPools) {
+            final MemoryUsage usage = pool.getCollectionUsage();
+            if(usage != null) {
+                used += usage.getUsed();
+            }
+        }
+        return used > heapBudget * Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Checks the heap at most every 100ms, since the pools only change after a
+     * garbage collection and merges can happen much more often than that
+     *
+     * @return whether the heap was over budget when it was last checked
+     */
+    private boolean isRecentlyOverHeapBudget() {
+        final long now = System.nanoTime();
+        if(now - heapCheckedAt >= HEAP_CHECK_NANOS) {
+            heapCheckedAt = now;
+            overHeapBudget = isOverHeapBudget();
+        }
+        return overHeapBudget;
+    }
+
+    /**
+     * Merges an object into the session, flushing and clearing the session if
+     * that fills up the batch
+     *
+     * @param session
+     *            the session to merge into
+     * @param obj
+     *            the object to merge
+     */
+    public void merge(final Session session, final Object obj) {
+        final Batch current = batch.get();
+        if(!current.started) {
+            // Reads leave entities in the session too, so start from its real
+            // count
+            current.base = session.getStatistics().getEntityCount();
+            current.entities = current.base;
+            current.started = true;
+        }
+        final Class<?> clazz = obj.getClass();
+
+        Double estimate = estimates.get(clazz);
+        if(estimate == null) {
+            // First time seeing this class, so measure how big its graph is
+            final int before = session.getStatistics().getEntityCount();
+            session.merge(obj);
+            estimate = Math.max(1.0, session.getStatistics().getEntityCount() - before);
+            estimates.put(clazz, estimate);
+        }
+        else {
+            session.merge(obj);
+        }
+
+        current.entities += estimate;
+        final Integer count = current.counts.get(clazz);
+        current.counts.put(clazz, count == null ? 1 : count + 1);
+
+        if(current.entities >= threshold || adaptive && current.entities >= MIN_THRESHOLD && isRecentlyOverHeapBudget()) {
+            flush(session, current);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "FlushPolicy [adaptive=" + adaptive + ", threshold=" + threshold + ", lastFlushMillis=" + lastFlushMillis + ", targetFlushMillis="
+                + targetFlushMillis + ", heapBudget=" + heapBudget + "]";
+    }
+}
@@ -1,24 +1,45 @@
 package com.robrua.orianna.store;
 
+import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.JDBCException;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.Assigned;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.EntityPersister;
 
 import com.robrua.orianna.type.core.OriannaObject;
 import com.robrua.orianna.type.dto.OriannaDto;
@@ -34,14 +55,26 @@ import com.robrua.orianna.type.exception.OriannaException;
  */
 public class HibernateDB extends DataStore implements AutoCloseable {
     public static class Builder {
+        private boolean adaptiveFlush = false;
+        private ExecutorService asyncExecutor = null;
         private String autoSchema = "update";
         private String cacheProvider = "none";
+        private ContentHashMode contentHashMode = ContentHashMode.NONE;
         private String dialect = "org.hibernate.dialect.MySQLDialect";
         private String driver = "com.mysql.jdbc.Driver";
         private int entityClearTheshold = 100;
+        private double heapBudget = 0.75;
+        private int jdbcBatchSize = 50;
         private Level logLevel = Level.INFO;
         private String password = null;
+        private long readYourWritesMillis = 0L;
+        private long replicaRetryMillis = 30000L;
+        private final List<String> replicaURLs = new ArrayList<>();
         private boolean showSQL = false;
+        private long staticDataRefreshMillis = 60000L;
+        private boolean staticDataSnapshot = false;
+        private long targetFlushMillis = 200L;
+        private boolean upsert = false;
         private String url = null;
         private String username = null;
 
@@ -50,6 +83,38 @@ public class HibernateDB extends DataStore implements AutoCloseable {
          */
         private Builder() {}
 
+        /**
+         * Lets the DB tune how many entities it manages before flushing and
+         * clearing the session, starting from the entity clear threshold. The
+         * threshold shrinks when flushes take longer than the target or the
+         * heap goes over budget, and grows when flushes are fast.
+         *
+         * @param targetFlushMillis
+         *            how long a flush should take (default = 200)
+         * @param heapBudget
+         *            the fraction of the max heap to stay under (default =
+         *            0.75)
+         * @return the builder
+         */
+        public Builder adaptiveFlush(final long targetFlushMillis, final double heapBudget) {
+            adaptiveFlush = true;
+            this.targetFlushMillis = targetFlushMillis;
+            this.heapBudget = heapBudget;
+            return this;
+        }
+
+        /**
+         * @param asyncExecutor
+         *            the executor that runs the async gets and stores
+         *            (default = a fixed pool with one thread per processor,
+         *            shut down when the DB is closed)
+         * @return the builder
+         */
+        public Builder asyncExecutor(final ExecutorService asyncExecutor) {
+            this.asyncExecutor = asyncExecutor;
+            return this;
+        }
+
         /**
          * @param autoSchema
          *            hibernate.hbm2ddl.auto (default = update)
@@ -71,18 +136,24 @@ public class HibernateDB extends DataStore implements AutoCloseable {
             final Logger logger = Logger.getLogger("org.hibernate");
             logger.setLevel(logLevel);
 
-            final Configuration configuration = new Configuration();
-
-            // DB configuration
-            configuration.setProperty("hibernate.dialect", dialect).setProperty("hibernate.connection.driver_class", driver)
-            .setProperty("hibernate.connection.url", url).setProperty("hibernate.connection.username", username)
-            .setProperty("hibernate.connection.password", password)
-
-            // Hibernate options
-            .setProperty("hibernate.cache.provider_class", cacheProvider).setProperty("hibernate.show_sql", Boolean.toString(showSQL))
-            .setProperty("hibernate.hbm2ddl.auto", autoSchema);
+            final List<Configuration> replicas = new ArrayList<>();
+            for(final String replicaURL : replicaURLs) {
+                // Replicas are read-only, so never let hibernate touch their
+                // schema
+                replicas.add(configuration(replicaURL).setProperty("hibernate.hbm2ddl.auto", "none"));
+            }
 
-            return new HibernateDB(configuration, entityClearTheshold);
+            final HibernateDB db = new HibernateDB(configuration(url), replicas, entityClearTheshold, readYourWritesMillis, replicaRetryMillis);
+            db.setSkipUnchangedWrites(contentHashMode);
+            db.setUpsertWrites(upsert);
+            db.setStaticDataSnapshot(staticDataSnapshot, staticDataRefreshMillis);
+            if(adaptiveFlush) {
+                db.setFlushPolicy(new FlushPolicy(entityClearTheshold, true, targetFlushMillis, heapBudget));
+            }
+            if(asyncExecutor != null) {
+                db.setAsyncExecutor(asyncExecutor);
+            }
+            return db;
         }
 
         /**
@@ -96,6 +167,33 @@ public class HibernateDB extends DataStore implements AutoCloseable {
             return this;
         }
 
+        /**
+         * @param url
+         *            hibernate.connection.url
+         * @return a hibernate configuration for the database at that URL
+         */
+        private Configuration configuration(final String url) {
+            final Configuration configuration = new Configuration();
+
+            // DB configuration
+            configuration.setProperty("hibernate.dialect", dialect).setProperty("hibernate.connection.driver_class", driver)
+            .setProperty("hibernate.connection.url", url).setProperty("hibernate.connection.username", username)
+            .setProperty("hibernate.connection.password", password)
+
+            // Hibernate options
+            .setProperty("hibernate.cache.provider_class", cacheProvider).setProperty("hibernate.show_sql", Boolean.toString(showSQL))
+            .setProperty("hibernate.hbm2ddl.auto", autoSchema);
+
+            // Send writes in JDBC batches, ordered so statements for the same
+            // table end up next to each other and can share a batch
+            if(jdbcBatchSize > 0) {
+                configuration.setProperty("hibernate.jdbc.batch_size", Integer.toString(jdbcBatchSize))
+                .setProperty("hibernate.order_inserts", "true").setProperty("hibernate.order_updates", "true");
+            }
+
+            return configuration;
+        }
+
         /**
          * @param dialect
          *            hibernate.dialect (default =
@@ -131,6 +229,22 @@ public class HibernateDB extends DataStore implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Sets how many statements hibernate sends to the DB at once when it
+         * flushes. Inserts and updates are ordered by table so they batch
+         * well. Inserts of entities with identity-generated ids can't be
+         * batched.
+         *
+         * @param jdbcBatchSize
+         *            hibernate.jdbc.batch_size (default = 50, 0 to disable
+         *            batching)
+         * @return the builder
+         */
+        public Builder jdbcBatchSize(final int jdbcBatchSize) {
+            this.jdbcBatchSize = jdbcBatchSize;
+            return this;
+        }
+
         /**
          * @param logLevel
          *            hibernate log level
@@ -151,6 +265,47 @@ public class HibernateDB extends DataStore implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Keeps a thread's reads on the primary database for a while after it
+         * writes, so it always sees its own writes even if the replicas lag
+         * behind
+         *
+         * @param readYourWritesMillis
+         *            how long after a write to keep reading from the primary
+         *            (default = 0, disabled)
+         * @return the builder
+         */
+        public Builder readYourWritesWindow(final long readYourWritesMillis) {
+            this.readYourWritesMillis = readYourWritesMillis;
+            return this;
+        }
+
+        /**
+         * @param replicaRetryMillis
+         *            how long a replica that failed a read is kept out of
+         *            rotation before it is tried again (default = 30000)
+         * @return the builder
+         */
+        public Builder replicaRetryTime(final long replicaRetryMillis) {
+            this.replicaRetryMillis = replicaRetryMillis;
+            return this;
+        }
+
+        /**
+         * Adds a read replica. Reads are load balanced across the replicas,
+         * while writes always go to the primary database set with
+         * {@link #URL(String)}. Replicas share the primary's username,
+         * password, driver, and dialect.
+         *
+         * @param replicaURL
+         *            hibernate.connection.url for the replica
+         * @return the builder
+         */
+        public Builder replicaURL(final String replicaURL) {
+            replicaURLs.add(replicaURL);
+            return this;
+        }
+
         /**
          * @param showSQL
          *            hibernate.show_sql (default = false)
@@ -161,6 +316,65 @@ public class HibernateDB extends DataStore implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Skips writes of objects whose content hasn't changed since they were
+         * last stored
+         *
+         * @param contentHashMode
+         *            where to keep the content hashes of stored objects
+         *            (default = NONE, never skip writes)
+         * @return the builder
+         */
+        public Builder skipUnchangedWrites(final ContentHashMode contentHashMode) {
+            this.contentHashMode = contentHashMode;
+            return this;
+        }
+
+        /**
+         * Sets how long the static data snapshot trusts what it knows about a
+         * type before checking the DB again, so it picks up new full sets
+         * stored by other processes
+         *
+         * @param staticDataRefreshMillis
+         *            how often to check the DB for new static data (default =
+         *            60000, 0 to never check if nothing else writes to the DB)
+         * @return the builder
+         */
+        public Builder staticDataRefresh(final long staticDataRefreshMillis) {
+            this.staticDataRefreshMillis = staticDataRefreshMillis;
+            return this;
+        }
+
+        /**
+         * Serves static data (champions, items, runes, etc.) from an
+         * immutable in-memory snapshot instead of the DB once a full set of
+         * it has been stored. Snapshots are loaded lazily on first use, or
+         * eagerly with {@link HibernateDB#loadStaticData(Class)}.
+         *
+         * @param staticDataSnapshot
+         *            whether to serve static data from memory (default =
+         *            false)
+         * @return the builder
+         */
+        public Builder staticDataSnapshot(final boolean staticDataSnapshot) {
+            this.staticDataSnapshot = staticDataSnapshot;
+            return this;
+        }
+
+        /**
+         * Writes flat entities (like summoners) with the database's native
+         * upsert instead of merge's select-then-write. See
+         * {@link UpsertWriter} for which entities and dialects are supported.
+         *
+         * @param upsert
+         *            whether to use native upserts (default = false)
+         * @return the builder
+         */
+        public Builder upsert(final boolean upsert) {
+            this.upsert = upsert;
+            return this;
+        }
+
         /**
          * @param url
          *            hibernate.connection.url
@@ -244,7 +458,26 @@ public class HibernateDB extends DataStore implements AutoCloseable {
         }
     }
 
+    /**
+     * The transaction a thread's unit of work is running in
+     */
+    private static class UnitOfWorkState {
+        private final List<Runnable> afterCommit;
+        private final Transaction transaction;
+
+        /**
+         * @param transaction
+         *            the transaction for the unit of work
+         */
+        public UnitOfWorkState(final Transaction transaction) {
+            this.transaction = transaction;
+            afterCommit = new ArrayList<>();
+        }
+    }
+
     private static final long CHECK_MILLIS = 10000L;
+    private static final Logger LOGGER = Logger.getLogger(HibernateDB.class.getName());
+    private static final String STATIC_DATA_PACKAGE = "com.robrua.orianna.type.dto.staticdata";
 
     /**
      * @return a builder for a HibernateDB
@@ -253,6 +486,24 @@ public class HibernateDB extends DataStore implements AutoCloseable {
         return new Builder();
     }
 
+    /**
+     * @param factory
+     *            the session factory
+     * @param clazz
+     *            a dto class
+     * @return the persister for the class, or null if the class doesn't have
+     *         an assigned, simple entity id
+     */
+    private static EntityPersister getAssignedIdPersister(final SessionFactory factory, final Class<?> clazz) {
+        final ClassMetadata metadata = factory.getClassMetadata(clazz);
+        if(!(metadata instanceof EntityPersister) || metadata.getIdentifierType().isComponentType()) {
+            return null;
+        }
+
+        final EntityPersister persister = (EntityPersister)metadata;
+        return persister.getIdentifierGenerator() instanceof Assigned ? persister : null;
+    }
+
     /**
      * @param clazz
      *            an OriannaObject class
@@ -263,6 +514,19 @@ public class HibernateDB extends DataStore implements AutoCloseable {
         return (Class<? extends OriannaDto>)((ParameterizedType)clazz.getGenericSuperclass()).getActualTypeArguments()[0];
     }
 
+    /**
+     * @param session
+     *            a session for the DB
+     * @param dto
+     *            the dto
+     * @return the dto's entity id, or null if it doesn't have an assigned,
+     *         simple entity id
+     */
+    static Serializable getEntityId(final Session session, final Object dto) {
+        final EntityPersister persister = getAssignedIdPersister(session.getSessionFactory(), dto.getClass());
+        return persister == null ? null : persister.getIdentifier(dto, (SessionImplementor)session);
+    }
+
     /**
      * @param clazz
      *            the dto type
@@ -279,21 +543,22 @@ public class HibernateDB extends DataStore implements AutoCloseable {
         }
     }
 
-    private final int entityClearTheshold;
-    private final SessionManager sessionManager;
+    /**
+     * @param type
+     *            an OriannaObject type
+     * @return whether the type is static data
+     */
+    private static boolean isStaticData(final Class<? extends OriannaObject<?>> type) {
+        return getDtoClass(type).getPackage().getName().equals(STATIC_DATA_PACKAGE);
+    }
 
     /**
-     * Initializes the database for a given hibernate configuration. Handles
-     * adding the annotated dto classes into the config.
-     *
      * @param cfg
-     *            the Hibernate config to use for this DB
-     * @param entityClearTheshold
-     *            the maximum number of entities to manage
+     *            a Hibernate config
+     * @return a session manager for the DB that config points to, with the
+     *         annotated dto classes added
      */
-    public HibernateDB(final Configuration cfg, final int entityClearTheshold) {
-        this.entityClearTheshold = entityClearTheshold;
-
+    private static SessionManager openDB(final Configuration cfg) {
         // Add DTO classes
         cfg.addAnnotatedClass(com.robrua.orianna.type.dto.champion.Champion.class).addAnnotatedClass(com.robrua.orianna.type.dto.champion.ChampionList.class)
                 .addAnnotatedClass(com.robrua.orianna.type.dto.currentgame.BannedChampion.class)
@@ -365,10 +630,96 @@ public class HibernateDB extends DataStore implements AutoCloseable {
                 .addAnnotatedClass(com.robrua.orianna.type.dto.summoner.RuneSlot.class).addAnnotatedClass(com.robrua.orianna.type.dto.summoner.Summoner.class)
                 .addAnnotatedClass(com.robrua.orianna.type.dto.team.MatchHistorySummary.class).addAnnotatedClass(com.robrua.orianna.type.dto.team.Roster.class)
                 .addAnnotatedClass(com.robrua.orianna.type.dto.team.Team.class).addAnnotatedClass(com.robrua.orianna.type.dto.team.TeamMemberInfo.class)
-                .addAnnotatedClass(com.robrua.orianna.type.dto.team.TeamStatDetail.class).addAnnotatedClass(com.robrua.orianna.store.HasAllStatus.class);
+                .addAnnotatedClass(com.robrua.orianna.type.dto.team.TeamStatDetail.class).addAnnotatedClass(com.robrua.orianna.store.HasAllStatus.class)
+                .addAnnotatedClass(com.robrua.orianna.store.ContentHash.class);
 
         final StandardServiceRegistryBuilder ssrb = new StandardServiceRegistryBuilder().applySettings(cfg.getProperties());
-        sessionManager = new SessionManager(cfg.buildSessionFactory(ssrb.build()), CHECK_MILLIS);
+        return new SessionManager(cfg.buildSessionFactory(ssrb.build()), CHECK_MILLIS);
+    }
+
+    private ExecutorService asyncExecutor = null;
+    private volatile ContentHashes contentHashes = null;
+    private volatile FlushPolicy flushPolicy;
+    private final ConcurrentMap<List<Object>, Future<?>> inFlight;
+    private final ThreadLocal<AtomicLong> lastWrite;
+    private boolean ownsAsyncExecutor = false;
+    private final long readYourWritesMillis;
+    private final ReplicaRouter replicas;
+    private final SessionManager sessionManager;
+    private volatile StaticDataSnapshot staticData = null;
+    private final ConcurrentMap<Class<?>, Object> staticDataLocks;
+    private final ThreadLocal<UnitOfWorkState> unitOfWork;
+    private volatile UpsertWriter upsertWriter = null;
+
+    /**
+     * Initializes the database for a given hibernate configuration. Handles
+     * adding the annotated dto classes into the config.
+     *
+     * @param cfg
+     *            the Hibernate config to use for this DB
+     * @param entityClearTheshold
+     *            the maximum number of entities to manage
+     */
+    public HibernateDB(final Configuration cfg, final int entityClearTheshold) {
+        this(cfg, Collections.<Configuration> emptyList(), entityClearTheshold, 0L, 0L);
+    }
+
+    /**
+     * Initializes the database for a primary hibernate configuration and any
+     * number of read replica configurations. Writes always go to the primary,
+     * while reads are load balanced across the healthy replicas. Handles adding
+     * the annotated dto classes into the configs.
+     *
+     * @param cfg
+     *            the Hibernate config for the primary DB
+     * @param replicaCfgs
+     *            the Hibernate configs for the read replicas
+     * @param entityClearTheshold
+     *            the maximum number of entities to manage
+     * @param readYourWritesMillis
+     *            how long after a write a thread keeps reading from the
+     *            primary (0 to disable)
+     * @param replicaRetryMillis
+     *            how long a replica that failed a read is kept out of rotation
+     */
+    public HibernateDB(final Configuration cfg, final List<Configuration> replicaCfgs, final int entityClearTheshold, final long readYourWritesMillis,
+            final long replicaRetryMillis) {
+        flushPolicy = new FlushPolicy(entityClearTheshold);
+        this.readYourWritesMillis = readYourWritesMillis;
+        lastWrite = new ThreadLocal<AtomicLong>() {
+            @Override
+            protected AtomicLong initialValue() {
+                return new AtomicLong(0L);
+            }
+        };
+        inFlight = new ConcurrentHashMap<>();
+        unitOfWork = new ThreadLocal<>();
+        staticDataLocks = new ConcurrentHashMap<>();
+
+        sessionManager = openDB(cfg);
+
+        final List<SessionManager> replicaManagers = new ArrayList<>();
+        for(final Configuration replicaCfg : replicaCfgs) {
+            replicaManagers.add(openDB(replicaCfg));
+        }
+        replicas = new ReplicaRouter(replicaManagers, replicaRetryMillis);
+    }
+
+    /**
+     * Runs an action once the current write commits. Inside a unit of work
+     * that's when the whole unit commits, otherwise it's right away.
+     *
+     * @param action
+     *            the action to run
+     */
+    private void afterCommit(final Runnable action) {
+        final UnitOfWorkState state = unitOfWork.get();
+        if(state == null) {
+            action.run();
+        }
+        else {
+            state.afterCommit.add(action);
+        }
     }
 
     @Override
@@ -376,19 +727,50 @@ public class HibernateDB extends DataStore implements AutoCloseable {
         return true;
     }
 
+    /**
+     * @param session
+     *            the session to write with
+     * @return the transaction to write in, or null if the thread's unit of
+     *         work owns the transaction
+     */
+    private Transaction beginWrite(final Session session) {
+        return unitOfWork.get() == null ? session.beginTransaction() : null;
+    }
+
     @Override
     protected <T extends OriannaObject<?>> boolean checkHasAll(final Class<T> type) {
-        final HasAllStatus status = hibernateGet(HasAllStatus.class, "clazz", type);
-        if(status == null) {
+        final StaticDataSnapshot snapshot = staticData;
+        if(snapshot != null && snapshot.isFresh(type)) {
+            return true;
+        }
+        if(snapshot != null && unitOfWork.get() == null && snapshot.isMissing(type)) {
             return false;
         }
 
-        return status.isHasAll();
+        final HasAllStatus status = readHasAllStatus(type, false);
+        return status != null && status.isHasAll();
     }
 
     @Override
     public void close() {
+        synchronized(this) {
+            if(ownsAsyncExecutor) {
+                asyncExecutor.shutdown();
+            }
+        }
         sessionManager.close();
+        replicas.close();
+    }
+
+    /**
+     * @param tx
+     *            the transaction from {@link #beginWrite(Session)}
+     */
+    private void commitWrite(final Transaction tx) {
+        if(tx != null) {
+            tx.commit();
+            markWrite();
+        }
     }
 
     @Override
@@ -408,14 +790,16 @@ public class HibernateDB extends DataStore implements AutoCloseable {
             }
         }
 
-        final Set<OriannaDto> result = new HashSet<>();
+        final Set<Object> result = new HashSet<>();
         for(final Object key : keys) {
-            final OriannaDto res = hibernateGet(clazz, indexRow, key);
+            final OriannaDto res = hibernateGet(sessionManager.getSession(), clazz, indexRow, key);
             if(res != null) {
                 result.add(res);
             }
         }
+        forgetContentHashes(result);
         hibernateDeleteAll(result);
+        updateStaticData(type, null, null);
     }
 
     @Override
@@ -435,10 +819,20 @@ public class HibernateDB extends DataStore implements AutoCloseable {
             }
         }
 
-        final OriannaDto result = hibernateGet(clazz, indexRow, key);
-        if(result != null) {
-            hibernateDelete(result);
+        final Set<Object> result = new HashSet<>();
+        final OriannaDto res = hibernateGet(sessionManager.getSession(), clazz, indexRow, key);
+        if(res != null) {
+            result.add(res);
+        }
+        forgetContentHashes(result);
+
+        if(result.size() == 1) {
+            hibernateDelete(result.iterator().next());
+        }
+        else if(!result.isEmpty()) {
+            hibernateDeleteAll(result);
         }
+        updateStaticData(type, null, null);
     }
 
     @SuppressWarnings("unchecked")
@@ -459,10 +853,19 @@ public class HibernateDB extends DataStore implements AutoCloseable {
             }
         }
 
+        final StaticDataSnapshot snapshot = getStaticData(type);
+        if(snapshot != null) {
+            final List<T> result = new ArrayList<>(keys.size());
+            for(final Object key : keys) {
+                result.add(snapshot.get(type, indexRow, key));
+            }
+            return result;
+        }
+
         try {
             final List<T> result = new ArrayList<>();
             for(final Object key : keys) {
-                final OriannaDto res = hibernateGet(clazz, indexRow, key);
+                final OriannaDto res = hibernateRead(clazz, indexRow, key);
                 if(res == null) {
                     result.add(null);
                 }
@@ -495,7 +898,12 @@ public class HibernateDB extends DataStore implements AutoCloseable {
             }
         }
 
-        final OriannaDto result = hibernateGet(clazz, indexRow, key);
+        final StaticDataSnapshot snapshot = getStaticData(type);
+        if(snapshot != null) {
+            return snapshot.get(type, indexRow, key);
+        }
+
+        final OriannaDto result = hibernateRead(clazz, indexRow, key);
         if(result == null) {
             return null;
         }
@@ -508,34 +916,32 @@ public class HibernateDB extends DataStore implements AutoCloseable {
         }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     protected <T extends OriannaObject<?>> List<T> doGetAll(final Class<T> type) {
-        final Class<? extends OriannaDto> clazz = getDtoClass(type);
-
-        final ScrollableResults result = hibernateGetAll(clazz);
-        if(result == null) {
-            return Collections.emptyList();
-        }
-
-        try {
-            final List<T> response = new ArrayList<>();
-            while(result.next()) {
-                response.add((T)type.getDeclaredConstructors()[0].newInstance(result.get(0)));
+        final StaticDataSnapshot snapshot = getStaticData(type);
+        if(snapshot != null) {
+            final List<T> result = snapshot.getAll(type);
+            if(result != null) {
+                return result;
             }
-            result.close();
-            return response;
-        }
-        catch(InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | SecurityException e) {
-            throw new OriannaException("Couldn't load data from DB");
         }
+
+        return readAll(type, false);
     }
 
     @Override
     protected <T extends OriannaObject<?>> CloseableIterator<T> doGetIterator(final Class<T> type) {
+        final StaticDataSnapshot snapshot = getStaticData(type);
+        if(snapshot != null) {
+            final CloseableIterator<T> result = snapshot.getIterator(type);
+            if(result != null) {
+                return result;
+            }
+        }
+
         final Class<? extends OriannaDto> clazz = getDtoClass(type);
 
-        final ScrollableResults result = hibernateGetAll(clazz);
+        final ScrollableResults result = hibernateReadAll(clazz);
         if(result == null) {
             return CloseableIterator.emptyIterator();
         }
@@ -549,90 +955,388 @@ public class HibernateDB extends DataStore implements AutoCloseable {
         final Class<T> type = (Class<T>)objs.get(0).getClass();
 
         final Set<Object> items = new HashSet<>();
+        Long updated = null;
         if(isFullSet) {
             final HasAllStatus status = new HasAllStatus();
             status.setClazz(type);
             status.setHasAll(true);
+            status.setUpdated(System.currentTimeMillis());
             items.add(status);
+            updated = status.getUpdated();
         }
 
-        for(final T obj : objs) {
-            items.add(obj.getDto());
+        final ContentHashes hashes = contentHashes;
+        final Map<String, Long> written = new HashMap<>();
+        items.addAll(filterUnchanged(hashes, objs, written));
+        if(items.isEmpty()) {
+            return;
         }
 
         hibernateSaveAll(items);
+        rememberContentHashes(hashes, written);
+        updateStaticData(type, isFullSet ? objs : null, updated);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     protected <T extends OriannaObject<?>> void doStore(final T obj, final Object key) {
-        hibernateSave(obj.getDto());
+        final ContentHashes hashes = contentHashes;
+        if(hashes == null) {
+            hibernateSave(obj.getDto());
+            updateStaticData((Class<T>)obj.getClass(), null, null);
+            return;
+        }
+
+        final Map<String, Long> written = new HashMap<>();
+        final List<Object> items = filterUnchanged(hashes, Collections.singletonList(obj), written);
+        if(items.size() == 1) {
+            hibernateSave(items.get(0));
+        }
+        else if(!items.isEmpty()) {
+            hibernateSaveAll(items);
+        }
+
+        rememberContentHashes(hashes, written);
+        if(!items.isEmpty()) {
+            updateStaticData((Class<T>)obj.getClass(), null, null);
+        }
     }
 
     /**
-     * @param obj
-     *            the object to delete
+     * Drops the objects whose content hasn't changed since the row with the
+     * same entity id was last stored
+     *
+     * @param hashes
+     *            the content hashes to check against, or null to write
+     *            everything
+     * @param objs
+     *            the objects to store
+     * @param written
+     *            filled with the content hashes to remember once the write
+     *            commits
+     * @return the dtos to write, along with their content hash entities if
+     *         hashes are persistent
      */
-    private void hibernateDelete(final Object obj) {
+    private <T extends OriannaObject<?>> List<Object> filterUnchanged(final ContentHashes hashes, final List<T> objs, final Map<String, Long> written) {
+        final List<Object> items = new ArrayList<>();
+        if(hashes == null) {
+            for(final T obj : objs) {
+                items.add(obj.getDto());
+            }
+            return items;
+        }
+
         final Session session = sessionManager.getSession();
-        final Transaction tx = session.beginTransaction();
-        session.delete(obj);
-        tx.commit();
+        final Map<String, Object> hashed = new HashMap<>();
+        final Map<String, Long> current = new HashMap<>();
+        for(final T obj : objs) {
+            final Object dto = obj.getDto();
+            final String id = ContentHashes.id(session, dto);
+            final Long hash = id == null ? null : ContentHashes.hash(dto);
+            if(hash == null) {
+                items.add(dto);
+                continue;
+            }
+
+            hashed.put(id, dto);
+            current.put(id, hash);
+        }
+
+        final Map<String, Long> stored = hashes.get(current.keySet(), session);
+        for(final Map.Entry<String, Long> entry : current.entrySet()) {
+            if(entry.getValue().equals(stored.get(entry.getKey()))) {
+                continue;
+            }
+
+            items.add(hashed.get(entry.getKey()));
+            written.put(entry.getKey(), entry.getValue());
+
+            final ContentHash entity = hashes.entity(entry.getKey(), entry.getValue());
+            if(entity != null) {
+                items.add(entity);
+            }
+        }
+        return items;
     }
 
     /**
-     * @param objs
-     *            the objects to delete
+     * Forgets the content hashes of rows that are being deleted. Hashes are
+     * kept per entity id, so this covers every key the rows were stored under.
+     *
+     * @param toDelete
+     *            the dtos being deleted. Filled with the persisted content
+     *            hash entities to delete along with them.
      */
-    private void hibernateDeleteAll(final Collection<?> objs) {
+    private void forgetContentHashes(final Collection<Object> toDelete) {
+        final ContentHashes hashes = contentHashes;
+        if(hashes == null) {
+            return;
+        }
+
         final Session session = sessionManager.getSession();
-        final Transaction tx = session.beginTransaction();
-        for(final Object obj : objs) {
-            session.delete(obj);
+        for(final Object dto : new ArrayList<>(toDelete)) {
+            final String id = ContentHashes.id(session, dto);
+            if(id == null) {
+                continue;
+            }
+            hashes.remove(id);
+
+            if(hashes.isPersistent()) {
+                final ContentHash entity = hibernateGet(session, ContentHash.class, "id", id);
+                if(entity != null) {
+                    toDelete.add(entity);
+                }
+            }
         }
-        tx.commit();
     }
 
     /**
-     * @param clazz
-     *            the class to get
-     * @param searchField
-     *            the column to search on
-     * @param searchVal
-     *            the value to search for
-     * @return the object meeting the criteria, or null
+     * Gets every object of a type on the async executor. Concurrent calls for
+     * the same type share a single query and its result, so don't cancel the
+     * returned future unless you mean to cancel it for every caller. Callers
+     * that share a query also share the same object instances, so don't modify
+     * them either.
+     *
+     * @param type
+     *            the OriannaObject type
+     * @return the objects, once they are loaded
      */
-    @SuppressWarnings("unchecked")
-    private <T> T hibernateGet(final Class<T> clazz, final String searchField, final Object searchVal) {
-        final Session session = sessionManager.getSession();
-        final Criteria queryCriteria = session.createCriteria(clazz);
+    public <T extends OriannaObject<?>> Future<List<T>> getAllAsync(final Class<T> type) {
+        return singleFlight(Arrays.<Object> asList(type), new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return doGetAll(type);
+            }
+        });
+    }
+
+    /**
+     * Gets an object on the async executor. Concurrent calls for the same
+     * (type, key) share a single query and its result, so don't cancel the
+     * returned future unless you mean to cancel it for every caller. Callers
+     * that share a query also share the same object instance, so don't modify
+     * it either.
+     *
+     * @param type
+     *            the OriannaObject type
+     * @param key
+     *            the key to look up
+     * @return the object (or null if it isn't stored), once it is loaded
+     */
+    public <T extends OriannaObject<?>> Future<T> getAsync(final Class<T> type, final Object key) {
+        return singleFlight(Arrays.<Object> asList(type, key), new Callable<T>() {
+            @Override
+            public T call() {
+                return doGet(type, key);
+            }
+        });
+    }
+
+    /**
+     * @return the executor for async calls, creating the default one if none
+     *         has been set
+     */
+    private synchronized ExecutorService getAsyncExecutor() {
+        if(asyncExecutor == null) {
+            asyncExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            ownsAsyncExecutor = true;
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * @param obj
+     *            an OriannaObject
+     * @return the entity id of its dto, or null if it doesn't have an
+     *         assigned, simple entity id
+     */
+    Serializable getEntityId(final OriannaObject<?> obj) {
+        return getEntityId(sessionManager.getSession(), obj.getDto());
+    }
+
+    /**
+     * @return the policy that decides when the session is flushed and cleared
+     *         while saving, which can be checked for the settings it has
+     *         chosen
+     */
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @return the dto field that is the entity id of the type, or null if it
+     *         doesn't have an assigned, simple entity id
+     */
+    <T extends OriannaObject<?>> String getIdField(final Class<T> type) {
+        final EntityPersister persister = getAssignedIdPersister(sessionManager.getSession().getSessionFactory(), getDtoClass(type));
+        return persister == null ? null : persister.getIdentifierPropertyName();
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @param key
+     *            a key
+     * @return the dto field the key looks objects of the type up by, or null
+     *         if the key type isn't valid for it
+     */
+    <T extends OriannaObject<?>> String getIndexField(final Class<T> type, final Object key) {
+        return getIndexRow(getDtoClass(type), key);
+    }
+
+    /**
+     * @return the replica to send the next read to, or null if it should go to
+     *         the primary
+     */
+    private SessionManager getReadReplica() {
+        if(replicas.isEmpty() || unitOfWork.get() != null) {
+            return null;
+        }
+
+        if(isInWriteWindow()) {
+            return null;
+        }
+
+        return replicas.nextReplica();
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @return the static data snapshot if it can serve the type (loading the
+     *         type into it if needed), or null if reads should go to the DB
+     */
+    private <T extends OriannaObject<?>> StaticDataSnapshot getStaticData(final Class<T> type) {
+        final StaticDataSnapshot snapshot = staticData;
+        if(snapshot == null || unitOfWork.get() != null || !isStaticData(type)) {
+            return null;
+        }
+
+        if(snapshot.isFresh(type) || !snapshot.isMissing(type) && loadStaticData(snapshot, type)) {
+            return snapshot;
+        }
+        return null;
+    }
+
+    /**
+     * @param obj
+     *            the object to delete
+     */
+    private void hibernateDelete(final Object obj) {
+        final Session session = sessionManager.getSession();
+        final Transaction tx = beginWrite(session);
+        session.delete(obj);
+        commitWrite(tx);
+    }
+
+    /**
+     * @param objs
+     *            the objects to delete
+     */
+    private void hibernateDeleteAll(final Collection<?> objs) {
+        final Session session = sessionManager.getSession();
+        final Transaction tx = beginWrite(session);
+        for(final Object obj : objs) {
+            session.delete(obj);
+        }
+        commitWrite(tx);
+    }
+
+    /**
+     * @param session
+     *            the session to query with
+     * @param clazz
+     *            the class to get
+     * @param searchField
+     *            the column to search on
+     * @param searchVal
+     *            the value to search for
+     * @return the object meeting the criteria, or null
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T hibernateGet(final Session session, final Class<T> clazz, final String searchField, final Object searchVal) {
+        final Criteria queryCriteria = session.createCriteria(clazz);
         queryCriteria.add(Restrictions.eq(searchField, searchVal));
         return (T)queryCriteria.uniqueResult();
     }
 
     /**
+     * @param session
+     *            the session to query with
      * @param clazz
      *            the class to iterate over
      * @return the hibernate results for that class
      */
-    private ScrollableResults hibernateGetAll(final Class<?> clazz) {
-        final Session session = sessionManager.getSession();
+    private ScrollableResults hibernateGetAll(final Session session, final Class<?> clazz) {
         return session.createCriteria(clazz).scroll(ScrollMode.FORWARD_ONLY);
     }
 
+    /**
+     * Gets an object from a read replica if one is available, falling back to
+     * the primary. Only JDBC failures take a replica out of rotation; other
+     * errors are passed on to the caller.
+     *
+     * @param clazz
+     *            the class to get
+     * @param searchField
+     *            the column to search on
+     * @param searchVal
+     *            the value to search for
+     * @return the object meeting the criteria, or null
+     */
+    private <T> T hibernateRead(final Class<T> clazz, final String searchField, final Object searchVal) {
+        final SessionManager replica = getReadReplica();
+        if(replica != null) {
+            try {
+                return hibernateGet(replicaSession(replica), clazz, searchField, searchVal);
+            }
+            catch(final JDBCException e) {
+                LOGGER.log(Level.WARNING, "Read replica failed, falling back to primary", e);
+                replicas.markFailed(replica);
+            }
+        }
+
+        return hibernateGet(sessionManager.getSession(), clazz, searchField, searchVal);
+    }
+
+    /**
+     * Iterates over a class from a read replica if one is available, falling
+     * back to the primary. Only JDBC failures take a replica out of rotation;
+     * other errors are passed on to the caller.
+     *
+     * @param clazz
+     *            the class to iterate over
+     * @return the hibernate results for that class
+     */
+    private ScrollableResults hibernateReadAll(final Class<?> clazz) {
+        final SessionManager replica = getReadReplica();
+        if(replica != null) {
+            try {
+                return hibernateGetAll(replicaSession(replica), clazz);
+            }
+            catch(final JDBCException e) {
+                LOGGER.log(Level.WARNING, "Read replica failed, falling back to primary", e);
+                replicas.markFailed(replica);
+            }
+        }
+
+        return hibernateGetAll(sessionManager.getSession(), clazz);
+    }
+
     /**
      * @param obj
      *            the object to save
      */
     private void hibernateSave(final Object obj) {
+        final UpsertWriter writer = upsertWriter;
         final Session session = sessionManager.getSession();
-        final Transaction tx = session.beginTransaction();
-        session.merge(obj);
-
-        if(session.getStatistics().getEntityCount() >= entityClearTheshold) {
-            session.flush();
-            session.clear();
+        final Transaction tx = beginWrite(session);
+        if(writer == null || !writer.upsertAll(session, Collections.singletonList(obj)).isEmpty()) {
+            flushPolicy.merge(session, obj);
         }
-        tx.commit();
+        commitWrite(tx);
     }
 
     /**
@@ -640,16 +1344,484 @@ public class HibernateDB extends DataStore implements AutoCloseable {
      *            the objects to save
      */
     private void hibernateSaveAll(final Collection<?> objs) {
+        final UpsertWriter writer = upsertWriter;
         final Session session = sessionManager.getSession();
-        final Transaction tx = session.beginTransaction();
-        for(final Object obj : objs) {
-            session.merge(obj);
+        final Transaction tx = beginWrite(session);
+        final Collection<?> toMerge = writer == null ? objs : writer.upsertAll(session, objs);
+        final FlushPolicy policy = flushPolicy;
+        for(final Object obj : toMerge) {
+            policy.merge(session, obj);
+        }
+        commitWrite(tx);
+    }
+
+    /**
+     * Runs a group of stores and deletes in a single transaction. Every store
+     * and delete made from this thread while the work runs shares one session
+     * and transaction, and is committed once the work finishes. If the work
+     * throws, everything is rolled back. Reads made during the work go to the
+     * primary so they see the uncommitted writes. Calling this from inside
+     * another unit of work just joins the outer one. Async calls run on other
+     * threads and aren't part of the transaction.
+     *
+     * @param work
+     *            the work to do
+     */
+    public void inTransaction(final UnitOfWork work) {
+        if(unitOfWork.get() != null) {
+            try {
+                work.run(this);
+                return;
+            }
+            catch(final RuntimeException e) {
+                throw e;
+            }
+            catch(final Exception e) {
+                throw new OriannaException("Unit of work failed: " + e.getMessage());
+            }
+        }
+
+        final UnitOfWorkState state = new UnitOfWorkState(sessionManager.getSession().beginTransaction());
+        unitOfWork.set(state);
+        boolean committed = false;
+        try {
+            work.run(this);
+            state.transaction.commit();
+            committed = true;
+        }
+        catch(final RuntimeException e) {
+            throw e;
+        }
+        catch(final Exception e) {
+            throw new OriannaException("Unit of work failed: " + e.getMessage());
+        }
+        finally {
+            unitOfWork.remove();
+            if(!committed) {
+                try {
+                    if(state.transaction.isActive()) {
+                        state.transaction.rollback();
+                    }
+                }
+                catch(final HibernateException e) {
+                    LOGGER.log(Level.WARNING, "Couldn't roll back unit of work", e);
+                }
+
+                // The session's state can't be trusted after a failure
+                sessionManager.resetSession();
+                flushPolicy.cleared();
+            }
+        }
+
+        markWrite();
+        for(final Runnable action : state.afterCommit) {
+            action.run();
+        }
+    }
+
+    /**
+     * @return whether the current thread wrote recently enough that it has to
+     *         read from the primary
+     */
+    private boolean isInWriteWindow() {
+        return readYourWritesMillis > 0L && System.currentTimeMillis() - lastWrite.get().get() < readYourWritesMillis;
+    }
+
+    /**
+     * Loads a static data type into the in-memory snapshot now instead of on
+     * first use. Only works once a full set of the type has been stored, and
+     * not inside a unit of work.
+     *
+     * @param type
+     *            the static data OriannaObject type
+     * @return whether the type is now served from memory
+     */
+    public <T extends OriannaObject<?>> boolean loadStaticData(final Class<T> type) {
+        final StaticDataSnapshot snapshot = staticData;
+        if(snapshot == null || unitOfWork.get() != null || !isStaticData(type)) {
+            return false;
+        }
+
+        return snapshot.isFresh(type) || !snapshot.isMissing(type) && loadStaticData(snapshot, type);
+    }
+
+    /**
+     * Checks the DB's HasAllStatus for a type, and loads the type into the
+     * snapshot if it has a full set the snapshot doesn't. Only one thread
+     * checks or loads a type at a time; the others wait and use its result.
+     *
+     * @param snapshot
+     *            the snapshot to load into
+     * @param type
+     *            the static data OriannaObject type
+     * @return whether the type is in the snapshot. If the DB has no full set
+     *         of the type, that's remembered until the next check.
+     */
+    private <T extends OriannaObject<?>> boolean loadStaticData(final StaticDataSnapshot snapshot, final Class<T> type) {
+        Object lock = staticDataLocks.get(type);
+        if(lock == null) {
+            final Object created = new Object();
+            lock = staticDataLocks.putIfAbsent(type, created);
+            if(lock == null) {
+                lock = created;
+            }
+        }
+
+        synchronized(lock) {
+            if(snapshot.isFresh(type)) {
+                return true;
+            }
+            if(snapshot.isMissing(type)) {
+                return false;
+            }
+
+            // Replicas may lag behind the full set that was just stored, so
+            // snapshots always come from the primary
+            final long version = snapshot.getVersion();
+            final HasAllStatus status = readHasAllStatus(type, true);
+            if(status == null || !status.isHasAll()) {
+                snapshot.markMissing(type, version);
+                return false;
+            }
+
+            if(snapshot.contains(type) && Objects.equals(status.getUpdated(), snapshot.getUpdated(type))) {
+                snapshot.checked(type);
+                return true;
+            }
+            return snapshot.load(type, readAll(type, true), status.getUpdated(), version);
+        }
+    }
+
+    /**
+     * Records a write for the read-your-writes window of the current thread
+     */
+    private void markWrite() {
+        if(readYourWritesMillis > 0L) {
+            lastWrite.get().set(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @param primary
+     *            whether to read from the primary instead of a read replica.
+     *            The objects are detached from the primary session so they
+     *            don't fill it up or get flushed if they're modified.
+     * @return every object of that type in the DB
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends OriannaObject<?>> List<T> readAll(final Class<T> type, final boolean primary) {
+        final Class<? extends OriannaDto> clazz = getDtoClass(type);
+
+        final Session session = primary ? sessionManager.getSession() : null;
+        final ScrollableResults result = primary ? hibernateGetAll(session, clazz) : hibernateReadAll(clazz);
+        if(result == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            final List<T> response = new ArrayList<>();
+            while(result.next()) {
+                final Object dto = result.get(0);
+                if(primary) {
+                    session.evict(dto);
+                }
+                response.add((T)type.getDeclaredConstructors()[0].newInstance(dto));
+            }
+            result.close();
+            return response;
+        }
+        catch(InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | SecurityException e) {
+            throw new OriannaException("Couldn't load data from DB");
+        }
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @param primary
+     *            whether to read from the primary instead of a read replica.
+     *            The status is detached from the primary session so later
+     *            checks don't get the same cached copy.
+     * @return the DB's HasAllStatus for the type, or null if it has none
+     */
+    private <T extends OriannaObject<?>> HasAllStatus readHasAllStatus(final Class<T> type, final boolean primary) {
+        if(!primary) {
+            return hibernateRead(HasAllStatus.class, "clazz", type);
+        }
+
+        final Session session = sessionManager.getSession();
+        final HasAllStatus status = hibernateGet(session, HasAllStatus.class, "clazz", type);
+        if(status != null) {
+            session.evict(status);
+        }
+        return status;
+    }
 
-            if(session.getStatistics().getEntityCount() >= entityClearTheshold) {
-                session.flush();
-                session.clear();
+    /**
+     * Remembers the content hashes of objects once their write commits
+     *
+     * @param hashes
+     *            the content hashes to update
+     * @param written
+     *            the content hash ids and hashes that were written
+     */
+    private void rememberContentHashes(final ContentHashes hashes, final Map<String, Long> written) {
+        if(written.isEmpty()) {
+            return;
+        }
+
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                hashes.putAll(written);
             }
+        });
+    }
+
+    /**
+     * Replica sessions are only ever read from, so they're cleared before
+     * each read. That way a read never gets a copy an earlier read left in the
+     * session's cache, and the session only ever holds one read's worth of
+     * entities.
+     *
+     * @param replica
+     *            the replica to read from
+     * @return the current thread's session for the replica, cleared
+     */
+    private Session replicaSession(final SessionManager replica) {
+        final Session session = replica.getSession();
+        session.clear();
+        return session;
+    }
+
+    /**
+     * Sets the executor that runs the async gets and stores. It's up to the
+     * caller to shut it down.
+     *
+     * @param executor
+     *            the executor
+     */
+    public synchronized void setAsyncExecutor(final ExecutorService executor) {
+        if(ownsAsyncExecutor) {
+            asyncExecutor.shutdown();
         }
-        tx.commit();
+        asyncExecutor = executor;
+        ownsAsyncExecutor = false;
+    }
+
+    /**
+     * @param flushPolicy
+     *            the policy that decides when the session is flushed and
+     *            cleared while saving
+     */
+    public void setFlushPolicy(final FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    /**
+     * Skips writes of objects whose content hasn't changed since they were
+     * last stored. Switching modes forgets any in-memory hashes.
+     *
+     * @param mode
+     *            where to keep the content hashes of stored objects
+     */
+    public void setSkipUnchangedWrites(final ContentHashMode mode) {
+        contentHashes = mode == ContentHashMode.NONE ? null : new ContentHashes(mode == ContentHashMode.PERSISTENT);
+    }
+
+    /**
+     * Serves static data (champions, items, runes, etc.) from an immutable
+     * in-memory snapshot instead of the DB once a full set of it has been
+     * stored. Turning it off drops the snapshot.
+     *
+     * @param enabled
+     *            whether to serve static data from memory
+     */
+    public void setStaticDataSnapshot(final boolean enabled) {
+        staticData = enabled ? new StaticDataSnapshot() : null;
+    }
+
+    /**
+     * Serves static data from an in-memory snapshot, like
+     * {@link #setStaticDataSnapshot(boolean)}, checking the DB for new full
+     * sets stored by other processes every refresh interval
+     *
+     * @param enabled
+     *            whether to serve static data from memory
+     * @param refreshMillis
+     *            how often to check the DB for new static data (0 to never
+     *            check if nothing else writes to the DB)
+     */
+    public void setStaticDataSnapshot(final boolean enabled, final long refreshMillis) {
+        staticData = enabled ? new StaticDataSnapshot(refreshMillis) : null;
+    }
+
+    /**
+     * Writes flat entities (like summoners) with the database's native upsert
+     * instead of merge's select-then-write. See {@link UpsertWriter} for which
+     * entities and dialects are supported.
+     *
+     * @param upsert
+     *            whether to use native upserts
+     */
+    public void setUpsertWrites(final boolean upsert) {
+        upsertWriter = upsert ? new UpsertWriter() : null;
+    }
+
+    /**
+     * Runs a lookup on the async executor unless the same lookup is already in
+     * flight, in which case the in-flight lookup's future is returned. A
+     * caller inside its read-your-writes window always gets its own lookup, so
+     * it can't be handed a result read from a lagging replica.
+     *
+     * @param id
+     *            identifies the lookup
+     * @param lookup
+     *            the lookup to run
+     * @return the future for the lookup's result
+     */
+    @SuppressWarnings("unchecked")
+    private <R> Future<R> singleFlight(final List<Object> id, final Callable<R> lookup) {
+        if(isInWriteWindow()) {
+            final FutureTask<R> task = new FutureTask<>(withCallerWrites(lookup));
+            getAsyncExecutor().execute(task);
+            return task;
+        }
+
+        final FutureTask<R> task = new FutureTask<R>(withCallerWrites(lookup)) {
+            @Override
+            protected void done() {
+                inFlight.remove(id, this);
+            }
+        };
+
+        final Future<?> existing = inFlight.putIfAbsent(id, task);
+        if(existing != null) {
+            return (Future<R>)existing;
+        }
+
+        try {
+            getAsyncExecutor().execute(task);
+        }
+        catch(final RejectedExecutionException e) {
+            inFlight.remove(id, task);
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * Stores an object on the async executor. Once the store is done, async
+     * gets for that object start a new lookup instead of joining one that may
+     * have started before the write, and the write counts towards the calling
+     * thread's read-your-writes window.
+     *
+     * @param obj
+     *            the object to store
+     * @param key
+     *            the key to store it with
+     * @return a future that completes once the object is stored
+     */
+    public <T extends OriannaObject<?>> Future<Void> storeAsync(final T obj, final Object key) {
+        final FutureTask<Void> task = new FutureTask<Void>(withCallerWrites(new Callable<Void>() {
+            @Override
+            public Void call() {
+                doStore(obj, key);
+                return null;
+            }
+        })) {
+            @Override
+            protected void done() {
+                inFlight.remove(Arrays.<Object> asList(obj.getClass(), key));
+                inFlight.remove(Arrays.<Object> asList(obj.getClass()));
+            }
+        };
+        getAsyncExecutor().execute(task);
+        return task;
+    }
+
+    /**
+     * Marks that this DB has every object of a type, without storing any
+     * objects
+     *
+     * @param type
+     *            the OriannaObject type
+     */
+    <T extends OriannaObject<?>> void storeHasAll(final Class<T> type) {
+        final HasAllStatus status = new HasAllStatus();
+        status.setClazz(type);
+        status.setHasAll(true);
+        status.setUpdated(System.currentTimeMillis());
+        hibernateSave(status);
+
+        final StaticDataSnapshot snapshot = staticData;
+        if(snapshot != null && isStaticData(type)) {
+            afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    snapshot.forget(type);
+                }
+            });
+        }
+    }
+
+    /**
+     * Updates the static data snapshot once a write commits. A new full set
+     * replaces the type's snapshot, and any other change drops it so it gets
+     * reloaded from the DB.
+     *
+     * @param type
+     *            the OriannaObject type that was written
+     * @param objs
+     *            the objects that were stored if they were a full set, or
+     *            null
+     * @param updated
+     *            when the HasAllStatus for the full set was written
+     */
+    private <T extends OriannaObject<?>> void updateStaticData(final Class<T> type, final List<T> objs, final Long updated) {
+        final StaticDataSnapshot snapshot = staticData;
+        if(snapshot == null || !isStaticData(type)) {
+            return;
+        }
+
+        final List<T> fullSet = objs == null ? null : new ArrayList<>(objs);
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                if(fullSet != null) {
+                    snapshot.put(type, fullSet, updated);
+                }
+                else {
+                    snapshot.invalidate(type);
+                }
+            }
+        });
+    }
+
+    /**
+     * Wraps a task so that, on whatever thread it runs, it reads and records
+     * writes with the calling thread's read-your-writes window
+     *
+     * @param task
+     *            the task to wrap
+     * @return the wrapped task
+     */
+    <R> Callable<R> withCallerWrites(final Callable<R> task) {
+        final AtomicLong callerWrite = lastWrite.get();
+        return new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                final AtomicLong previous = lastWrite.get();
+                lastWrite.set(callerWrite);
+                try {
+                    return task.call();
+                }
+                finally {
+                    lastWrite.set(previous);
+                }
+            }
+        };
     }
 }
@@ -0,0 +1,80 @@
+package com.robrua.orianna.store;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.robrua.orianna.type.core.common.Region;
+
+/**
+ * Puts each region's data on its own shard. Orianna keys don't carry a region,
+ * so the region is taken from the current thread (see
+ * {@link #setRegion(Region)}), falling back to a default region. This fits
+ * crawlers that work one region per thread.
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public class RegionShardStrategy implements ShardStrategy {
+    private final Region defaultRegion;
+    private final ThreadLocal<Region> region;
+    private final Map<Region, Integer> regionShards;
+
+    /**
+     * @param regionShards
+     *            the index of the shard for each region
+     * @param defaultRegion
+     *            the region to use for threads that haven't set one
+     */
+    public RegionShardStrategy(final Map<Region, Integer> regionShards, final Region defaultRegion) {
+        if(!regionShards.containsKey(defaultRegion)) {
+            throw new IllegalArgumentException("The default region must have a shard!");
+        }
+
+        this.regionShards = new EnumMap<>(regionShards);
+        this.defaultRegion = defaultRegion;
+        region = new ThreadLocal<>();
+    }
+
+    /**
+     * @return the region the current thread is working on
+     */
+    public Region getRegion() {
+        final Region current = region.get();
+        return current == null ? defaultRegion : current;
+    }
+
+    /**
+     * @return the index of the shard for the current thread's region
+     */
+    private int getRegionShard() {
+        final Region current = getRegion();
+        final Integer shard = regionShards.get(current);
+        if(shard == null) {
+            throw new IllegalStateException("No shard set for region " + current);
+        }
+        return shard;
+    }
+
+    @Override
+    public int getShard(final Class<?> type, final Object key, final int shardCount) {
+        return getRegionShard();
+    }
+
+    @Override
+    public int[] getShards(final Class<?> type, final int shardCount) {
+        return new int[] {getRegionShard()};
+    }
+
+    /**
+     * @param region
+     *            the region the current thread is working on, or null to use
+     *            the default region
+     */
+    public void setRegion(final Region region) {
+        if(region == null) {
+            this.region.remove();
+        }
+        else {
+            this.region.set(region);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.robrua.orianna.store;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Load balances reads across a set of read replicas. Replicas are picked
+ * round-robin, and a replica that fails a read is taken out of rotation until
+ * its retry time passes, at which point the next read to it acts as the health
+ * check.
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public class ReplicaRouter implements Closeable {
+    private final AtomicLongArray downUntil;
+    private final AtomicInteger next;
+    private final List<SessionManager> replicas;
+    private final long retryMillis;
+
+    /**
+     * @param replicas
+     *            the session managers for the replicas
+     * @param retryMillis
+     *            how long a failed replica stays out of rotation
+     */
+    public ReplicaRouter(final List<SessionManager> replicas, final long retryMillis) {
+        this.replicas = replicas;
+        this.retryMillis = retryMillis;
+        downUntil = new AtomicLongArray(replicas.size());
+        next = new AtomicInteger(0);
+    }
+
+    @Override
+    public void close() {
+        for(final SessionManager replica : replicas) {
+            replica.close();
+        }
+    }
+
+    /**
+     * @return whether there are any replicas to route to
+     */
+    public boolean isEmpty() {
+        return replicas.isEmpty();
+    }
+
+    /**
+     * Takes a replica out of rotation after a failed read
+     *
+     * @param replica
+     *            the replica that failed
+     */
+    public void markFailed(final SessionManager replica) {
+        final int index = replicas.indexOf(replica);
+        if(index < 0) {
+            return;
+        }
+
+        downUntil.set(index, System.currentTimeMillis() + retryMillis);
+        replica.resetSession();
+    }
+
+    /**
+     * @return the next healthy replica, or null if none are available
+     */
+    public SessionManager nextReplica() {
+        final int size = replicas.size();
+        final long now = System.currentTimeMillis();
+        final int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for(int i = 0; i < size; i++) {
+            final int index = (start + i) % size;
+            if(downUntil.get(index) <= now) {
+                return replicas.get(index);
+            }
+        }
+
+        return null;
+    }
+}
@@ -94,4 +94,15 @@ public class SessionManager implements Closeable {
 
         return session;
     }
+
+    /**
+     * Closes the hibernate session for the current thread, if it has one. The
+     * next call to {@link #getSession()} will open a fresh session.
+     */
+    public void resetSession() {
+        final Session session = sessions.remove(Thread.currentThread());
+        if(session != null && session.isOpen()) {
+            session.close();
+        }
+    }
 }
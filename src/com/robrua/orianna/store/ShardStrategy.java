@@ -0,0 +1,29 @@
+package com.robrua.orianna.store;
+
+/**
+ * Decides which shard of a {@link ShardedHibernateDB} an object lives on
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public interface ShardStrategy {
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @param key
+     *            the entity id of the object, or the key it's stored and
+     *            looked up with if it doesn't have an assigned entity id
+     * @param shardCount
+     *            the number of shards
+     * @return the index of the shard the object with that key lives on
+     */
+    public int getShard(Class<?> type, Object key, int shardCount);
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @param shardCount
+     *            the number of shards
+     * @return the indices of every shard that objects of that type can live on
+     */
+    public int[] getShards(Class<?> type, int shardCount);
+}
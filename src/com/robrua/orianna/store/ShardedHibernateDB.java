@@ -0,0 +1,564 @@
+package com.robrua.orianna.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.robrua.orianna.type.core.OriannaObject;
+import com.robrua.orianna.type.exception.OriannaException;
+
+/**
+ * Spreads Orianna's data across several {@link HibernateDB}s. Each object is
+ * routed to one shard by a {@link ShardStrategy}, using its entity id so that
+ * an object Orianna reaches through several keys (like a summoner by id and by
+ * name) is only stored once. Gets and deletes by the id go straight to that
+ * shard, and ones by any other key ask every shard. Types without an assigned
+ * entity id are routed by their key instead, so they can only be looked up by
+ * one kind of key.
+ *
+ * Multi-key gets, stores, and deletes run in parallel, one task per shard, and
+ * getAll/iterator results are merged across shards. The tasks use the calling
+ * thread's read-your-writes window on each shard. Writes that span shards
+ * aren't atomic: each shard commits on its own, a failure on one shard doesn't
+ * undo the others, and a {@link HibernateDB#inTransaction(UnitOfWork)} on a
+ * shard doesn't cover writes made through the ShardedHibernateDB.
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public class ShardedHibernateDB extends DataStore implements AutoCloseable {
+    public static class Builder {
+        private final List<HibernateDB> shards = new ArrayList<>();
+        private ShardStrategy strategy = new ConsistentHashShardStrategy();
+        private int threads = 0;
+
+        /**
+         *
+         */
+        private Builder() {}
+
+        /**
+         * @return the datastore
+         */
+        public ShardedHibernateDB build() {
+            if(shards.isEmpty()) {
+                throw new IllegalArgumentException("At least one shard must be added!");
+            }
+
+            return new ShardedHibernateDB(shards, strategy, threads > 0 ? threads : shards.size());
+        }
+
+        /**
+         * Adds a shard. Shards are indexed in the order they are added, and
+         * the order must stay the same between runs or keys will be looked up
+         * on the wrong shard.
+         *
+         * @param shard
+         *            the DB for the shard
+         * @return the builder
+         */
+        public Builder shard(final HibernateDB shard) {
+            shards.add(shard);
+            return this;
+        }
+
+        /**
+         * @param strategy
+         *            how to pick the shard for a key (default =
+         *            {@link ConsistentHashShardStrategy})
+         * @return the builder
+         */
+        public Builder strategy(final ShardStrategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        /**
+         * @param threads
+         *            the number of threads used to fan out requests to the
+         *            shards (default = the number of shards)
+         * @return the builder
+         */
+        public Builder threads(final int threads) {
+            this.threads = threads;
+            return this;
+        }
+    }
+
+    private class ShardIterator<T extends OriannaObject<?>> extends CloseableIterator<T> {
+        private CloseableIterator<T> current = null;
+        private int index = 0;
+        private final int[] shardIndices;
+        private final Class<T> type;
+
+        /**
+         * @param type
+         *            the type to iterate
+         * @param shardIndices
+         *            the shards to iterate over, in order
+         */
+        public ShardIterator(final Class<T> type, final int[] shardIndices) {
+            this.type = type;
+            this.shardIndices = shardIndices;
+        }
+
+        @Override
+        public void close() {
+            if(current != null) {
+                current.close();
+                current = null;
+            }
+            index = shardIndices.length;
+        }
+
+        @Override
+        public boolean hasNext() {
+            // Shard iterators hold a session bound to the calling thread, so
+            // they are opened one at a time as the previous one runs out
+            while(current == null || !current.hasNext()) {
+                if(current != null) {
+                    current.close();
+                    current = null;
+                }
+
+                if(index >= shardIndices.length) {
+                    return false;
+                }
+                current = shards.get(shardIndices[index++]).doGetIterator(type);
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if(!hasNext()) {
+                return null;
+            }
+
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Can't remove object from DB using iterator.");
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ShardedHibernateDB.class.getName());
+
+    /**
+     * @return a builder for a ShardedHibernateDB
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param e
+     *            the exception thrown by a shard
+     * @return an unchecked exception to rethrow
+     */
+    private static RuntimeException unwrap(final Throwable e) {
+        if(e instanceof ExecutionException && e.getCause() != null) {
+            return unwrap(e.getCause());
+        }
+        if(e instanceof RuntimeException) {
+            return (RuntimeException)e;
+        }
+        if(e instanceof Error) {
+            throw (Error)e;
+        }
+        return new OriannaException("Shard request failed: " + e.getMessage());
+    }
+
+    private final ExecutorService executor;
+    private final ConcurrentMap<Class<?>, String> keyFields;
+    private final List<HibernateDB> shards;
+    private final ShardStrategy strategy;
+
+    /**
+     * @param shards
+     *            the DBs for the shards, in shard index order
+     * @param strategy
+     *            how to pick the shard for a key
+     * @param threads
+     *            the number of threads used to fan out requests to the shards
+     */
+    public ShardedHibernateDB(final List<HibernateDB> shards, final ShardStrategy strategy, final int threads) {
+        this.shards = new ArrayList<>(shards);
+        this.strategy = strategy;
+        executor = Executors.newFixedThreadPool(threads);
+        keyFields = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    protected boolean allowsNullStoreKeys() {
+        // Objects are placed by their key, so one stored without a key would
+        // land on a shard that later gets by its real key don't look at
+        return false;
+    }
+
+    @Override
+    protected <T extends OriannaObject<?>> boolean checkHasAll(final Class<T> type) {
+        for(final int shard : strategy.getShards(type, shards.size())) {
+            if(!shards.get(shard).checkHasAll(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        for(final HibernateDB shard : shards) {
+            shard.close();
+        }
+    }
+
+    @Override
+    protected <T extends OriannaObject<?>> void doDelete(final Class<T> type, final List<?> keys) {
+        if(!routesByKey(type, keys.get(0))) {
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for(final int index : strategy.getShards(type, shards.size())) {
+                final HibernateDB shard = shards.get(index);
+                tasks.add(shard.withCallerWrites(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        shard.doDelete(type, keys);
+                        return null;
+                    }
+                }));
+            }
+            runAll(tasks);
+            return;
+        }
+
+        final Map<Integer, List<Integer>> groups = groupByShard(type, keys);
+
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for(final Map.Entry<Integer, List<Integer>> group : groups.entrySet()) {
+            final HibernateDB shard = shards.get(group.getKey());
+            final List<Object> shardKeys = select(keys, group.getValue());
+            tasks.add(shard.withCallerWrites(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    shard.doDelete(type, shardKeys);
+                    return null;
+                }
+            }));
+        }
+        runAll(tasks);
+    }
+
+    @Override
+    protected <T extends OriannaObject<?>> void doDelete(final Class<T> type, final Object key) {
+        if(routesByKey(type, key)) {
+            getShard(type, key).doDelete(type, key);
+        }
+        else {
+            doDelete(type, Collections.singletonList(key));
+        }
+    }
+
+    @Override
+    protected <T extends OriannaObject<?>> List<T> doGet(final Class<T> type, final List<?> keys) {
+        if(!routesByKey(type, keys.get(0))) {
+            return getFromAll(type, keys);
+        }
+
+        final Map<Integer, List<Integer>> groups = groupByShard(type, keys);
+
+        final List<Callable<List<T>>> tasks = new ArrayList<>();
+        for(final Map.Entry<Integer, List<Integer>> group : groups.entrySet()) {
+            final HibernateDB shard = shards.get(group.getKey());
+            final List<Object> shardKeys = select(keys, group.getValue());
+            tasks.add(shard.withCallerWrites(new Callable<List<T>>() {
+                @Override
+                public List<T> call() {
+                    return shard.doGet(type, shardKeys);
+                }
+            }));
+        }
+        final List<List<T>> results = runAll(tasks);
+
+        // Put results back in the order of the keys
+        final List<T> result = new ArrayList<>(Collections.<T> nCopies(keys.size(), null));
+        int i = 0;
+        for(final List<Integer> indices : groups.values()) {
+            final List<T> shardResult = results.get(i++);
+            for(int j = 0; j < indices.size(); j++) {
+                result.set(indices.get(j), shardResult.get(j));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected <T extends OriannaObject<?>> T doGet(final Class<T> type, final Object key) {
+        if(routesByKey(type, key)) {
+            return getShard(type, key).doGet(type, key);
+        }
+
+        return getFromAll(type, Collections.singletonList(key)).get(0);
+    }
+
+    @Override
+    protected <T extends OriannaObject<?>> List<T> doGetAll(final Class<T> type) {
+        final List<Callable<List<T>>> tasks = new ArrayList<>();
+        for(final int index : strategy.getShards(type, shards.size())) {
+            final HibernateDB shard = shards.get(index);
+            tasks.add(shard.withCallerWrites(new Callable<List<T>>() {
+                @Override
+                public List<T> call() {
+                    return shard.doGetAll(type);
+                }
+            }));
+        }
+
+        final List<T> result = new ArrayList<>();
+        for(final List<T> shardResult : runAll(tasks)) {
+            result.addAll(shardResult);
+        }
+        return result;
+    }
+
+    @Override
+    protected <T extends OriannaObject<?>> CloseableIterator<T> doGetIterator(final Class<T> type) {
+        return new ShardIterator<>(type, strategy.getShards(type, shards.size()));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected <T extends OriannaObject<?>> void doStore(final List<T> objs, final List<?> keys, final boolean isFullSet) {
+        final Class<T> type = (Class<T>)objs.get(0).getClass();
+        final List<Object> routingKeys = new ArrayList<>(objs.size());
+        for(int i = 0; i < objs.size(); i++) {
+            routingKeys.add(getRoutingKey(objs.get(i), keys.get(i)));
+        }
+        final Map<Integer, List<Integer>> groups = groupByShard(type, routingKeys);
+
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for(final Map.Entry<Integer, List<Integer>> group : groups.entrySet()) {
+            final HibernateDB shard = shards.get(group.getKey());
+            final List<T> shardObjs = select(objs, group.getValue());
+            final List<Object> shardKeys = select(keys, group.getValue());
+            tasks.add(shard.withCallerWrites(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    shard.doStore(shardObjs, shardKeys, isFullSet);
+                    return null;
+                }
+            }));
+        }
+
+        // Every shard that can hold this type has to know it has the full
+        // set, even if none of the objects landed on it
+        if(isFullSet) {
+            for(final int index : strategy.getShards(type, shards.size())) {
+                if(!groups.containsKey(index)) {
+                    final HibernateDB shard = shards.get(index);
+                    tasks.add(shard.withCallerWrites(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            shard.storeHasAll(type);
+                            return null;
+                        }
+                    }));
+                }
+            }
+        }
+        runAll(tasks);
+    }
+
+    @Override
+    protected <T extends OriannaObject<?>> void doStore(final T obj, final Object key) {
+        getShard(obj.getClass(), getRoutingKey(obj, key)).doStore(obj, key);
+    }
+
+    /**
+     * Gets objects by a key that isn't their entity id by asking every shard
+     * that can hold the type
+     *
+     * @param type
+     *            the OriannaObject type
+     * @param keys
+     *            the keys
+     * @return the objects, in the order of the keys
+     */
+    private <T extends OriannaObject<?>> List<T> getFromAll(final Class<T> type, final List<?> keys) {
+        final List<Callable<List<T>>> tasks = new ArrayList<>();
+        for(final int index : strategy.getShards(type, shards.size())) {
+            final HibernateDB shard = shards.get(index);
+            tasks.add(shard.withCallerWrites(new Callable<List<T>>() {
+                @Override
+                public List<T> call() {
+                    return shard.doGet(type, keys);
+                }
+            }));
+        }
+
+        final List<T> result = new ArrayList<>(Collections.<T> nCopies(keys.size(), null));
+        for(final List<T> shardResult : runAll(tasks)) {
+            for(int i = 0; i < shardResult.size(); i++) {
+                if(shardResult.get(i) != null) {
+                    result.set(i, shardResult.get(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param obj
+     *            the object being stored
+     * @param key
+     *            the key it's being stored with
+     * @return what to pick the object's shard by: its entity id, or the key
+     *         if it doesn't have an assigned one
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends OriannaObject<?>> Object getRoutingKey(final T obj, final Object key) {
+        final Object id = shards.get(0).getEntityId(obj);
+        if(id != null) {
+            return id;
+        }
+
+        routesByKey((Class<T>)obj.getClass(), key);
+        return key;
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @param key
+     *            the key
+     * @return the shard that the object with that key lives on
+     */
+    private HibernateDB getShard(final Class<?> type, final Object key) {
+        return shards.get(strategy.getShard(type, key, shards.size()));
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @param keys
+     *            the keys
+     * @return the positions of the keys in the list, grouped by shard index
+     */
+    private Map<Integer, List<Integer>> groupByShard(final Class<?> type, final List<?> keys) {
+        final Map<Integer, List<Integer>> groups = new TreeMap<>();
+        for(int i = 0; i < keys.size(); i++) {
+            final int shard = strategy.getShard(type, keys.get(i), shards.size());
+            List<Integer> group = groups.get(shard);
+            if(group == null) {
+                group = new ArrayList<>();
+                groups.put(shard, group);
+            }
+            group.add(i);
+        }
+        return groups;
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @param key
+     *            a key for the type
+     * @return whether objects found by that kind of key live on the shard the
+     *         key routes to. That's true for the entity id, and for any key
+     *         of a type without an assigned entity id, which is only allowed
+     *         one kind of key.
+     */
+    private <T extends OriannaObject<?>> boolean routesByKey(final Class<T> type, final Object key) {
+        final HibernateDB shard = shards.get(0);
+        final String indexField = shard.getIndexField(type, key);
+        final String idField = shard.getIdField(type);
+        if(indexField == null) {
+            // Invalid key, which the shard will report
+            return true;
+        }
+        if(idField != null) {
+            return idField.equals(indexField);
+        }
+
+        final String existing = keyFields.putIfAbsent(type, indexField);
+        if(existing != null && !existing.equals(indexField)) {
+            throw new OriannaException(type.getSimpleName() + " has no assigned entity id to shard by, so it can only be stored and looked up by "
+                    + existing + " in a ShardedHibernateDB");
+        }
+        return true;
+    }
+
+    /**
+     * Runs one task per shard. A single task runs on the calling thread. Every
+     * task runs to completion even if some fail, so a failed write leaves the
+     * other shards' writes committed. Every failure is logged, and the first
+     * is rethrown.
+     *
+     * @param tasks
+     *            the tasks to run
+     * @return the results of the tasks, in order
+     */
+    private <R> List<R> runAll(final List<Callable<R>> tasks) {
+        try {
+            if(tasks.size() == 1) {
+                return Collections.singletonList(tasks.get(0).call());
+            }
+
+            final List<R> results = new ArrayList<>(tasks.size());
+            RuntimeException failure = null;
+            int failed = 0;
+            for(final Future<R> future : executor.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                }
+                catch(final ExecutionException e) {
+                    LOGGER.log(Level.WARNING, "Shard request failed", e.getCause());
+                    failed++;
+                    if(failure == null) {
+                        failure = unwrap(e);
+                    }
+                }
+            }
+
+            if(failure != null) {
+                LOGGER.log(Level.WARNING, failed + " of " + tasks.size() + " shard requests failed, the rest completed");
+                throw failure;
+            }
+            return results;
+        }
+        catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OriannaException("Interrupted while waiting on shards");
+        }
+        catch(final Exception e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * @param values
+     *            a list
+     * @param indices
+     *            positions in that list
+     * @return the values at those positions
+     */
+    private <V> List<V> select(final List<? extends V> values, final List<Integer> indices) {
+        final List<V> selected = new ArrayList<>(indices.size());
+        for(final int index : indices) {
+            selected.add(values.get(index));
+        }
+        return selected;
+    }
+}
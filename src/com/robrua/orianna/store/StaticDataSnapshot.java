@@ -0,0 +1,389 @@
+package com.robrua.orianna.store;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.robrua.orianna.type.core.OriannaObject;
+import com.robrua.orianna.type.exception.OriannaException;
+
+/**
+ * Immutable in-memory copies of full sets of static data, so a
+ * {@link HibernateDB} can serve static data reads without going to Hibernate.
+ * Each type's set is swapped in as a whole when a new full set is stored, and
+ * the per-key indices are built the first time a type is looked up by that
+ * kind of key. Types found not to have a full set in the DB are remembered
+ * too, so reads of them don't keep checking.
+ *
+ * Other processes can store a new full set in the same DB, so what the
+ * snapshot knows about each type is only trusted for the refresh interval.
+ * After that the DB's HasAllStatus for the type is checked again, and the
+ * type is reloaded if that status was written after the snapshot's copy.
+ *
+ * The objects handed out are shared between every caller, so they shouldn't
+ * be modified.
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public class StaticDataSnapshot {
+    private static class SnapshotIterator<T> extends CloseableIterator<T> {
+        private int index = 0;
+        private final Object[] objs;
+
+        /**
+         * @param objs
+         *            the objects to iterate
+         */
+        public SnapshotIterator(final Object[] objs) {
+            this.objs = objs;
+        }
+
+        @Override
+        public void close() {
+            index = objs.length;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < objs.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            if(!hasNext()) {
+                return null;
+            }
+
+            return (T)objs[index++];
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Can't remove object from DB using iterator.");
+        }
+    }
+
+    /**
+     * The full set of one type
+     */
+    private static class TypeSnapshot {
+        private final Object[] all;
+        private final Map<String, Map<Object, Object>> indices;
+        private final Long updated;
+
+        /**
+         * @param all
+         *            every object of the type
+         * @param updated
+         *            when the HasAllStatus for the set was written
+         */
+        public TypeSnapshot(final Object[] all, final Long updated) {
+            this.all = all;
+            this.updated = updated;
+            indices = new ConcurrentHashMap<>();
+        }
+
+        /**
+         * @param indexField
+         *            the dto field the objects are looked up by
+         * @return the objects keyed by that field
+         */
+        public Map<Object, Object> getIndex(final String indexField) {
+            Map<Object, Object> index = indices.get(indexField);
+            if(index == null) {
+                final Map<Object, Object> built = new HashMap<>(all.length * 4 / 3 + 1);
+                for(final Object obj : all) {
+                    final Object dto = ((OriannaObject<?>)obj).getDto();
+                    try {
+                        built.put(normalize(getField(dto.getClass(), indexField).get(dto)), obj);
+                    }
+                    catch(final IllegalAccessException e) {
+                        throw new OriannaException("Couldn't index static data");
+                    }
+                }
+                index = Collections.unmodifiableMap(built);
+                indices.put(indexField, index);
+            }
+            return index;
+        }
+    }
+
+    private static final long DEFAULT_REFRESH_MILLIS = 60000L;
+
+    /**
+     * @param clazz
+     *            a dto class
+     * @param name
+     *            the name of a field on it or one of its superclasses
+     * @return the field, made accessible
+     */
+    private static Field getField(final Class<?> clazz, final String name) {
+        for(Class<?> current = clazz; current != null; current = current.getSuperclass()) {
+            try {
+                final Field field = current.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            }
+            catch(final NoSuchFieldException e) {
+                continue;
+            }
+        }
+        throw new OriannaException("Couldn't find index field " + name + " on " + clazz.getName());
+    }
+
+    /**
+     * @param key
+     *            a key or index field value
+     * @return the key, with integral numbers widened to Long so int and long
+     *         ids match
+     */
+    private static Object normalize(final Object key) {
+        if(key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte) {
+            return ((Number)key).longValue();
+        }
+        return key;
+    }
+
+    private final Map<Class<?>, Long> checked;
+    private final Set<Class<?>> missing;
+    private final long refreshMillis;
+    private volatile Map<Class<?>, TypeSnapshot> snapshots;
+    private long version;
+
+    /**
+     * Creates a snapshot that rechecks the DB every minute
+     */
+    public StaticDataSnapshot() {
+        this(DEFAULT_REFRESH_MILLIS);
+    }
+
+    /**
+     * @param refreshMillis
+     *            how long what's known about a type is trusted before the DB
+     *            is checked again (0 to never check again, if nothing else
+     *            writes to the DB)
+     */
+    public StaticDataSnapshot(final long refreshMillis) {
+        this.refreshMillis = refreshMillis;
+        checked = new ConcurrentHashMap<>();
+        missing = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+        snapshots = Collections.emptyMap();
+        version = 0L;
+    }
+
+    /**
+     * Records that the DB was just checked and the type's snapshot is still
+     * current
+     *
+     * @param type
+     *            the OriannaObject type
+     */
+    public void checked(final Class<?> type) {
+        checked.put(type, System.currentTimeMillis());
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @return whether there is a snapshot of the type
+     */
+    public boolean contains(final Class<?> type) {
+        return snapshots.containsKey(type);
+    }
+
+    /**
+     * Drops everything known about a type, after its HasAllStatus was written
+     * without storing a full set through the snapshot
+     *
+     * @param type
+     *            the OriannaObject type
+     */
+    public synchronized void forget(final Class<?> type) {
+        missing.remove(type);
+        invalidate(type);
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @param indexField
+     *            the dto field the key is for
+     * @param key
+     *            the key
+     * @return the object with that key, or null if there isn't one
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(final Class<T> type, final String indexField, final Object key) {
+        final TypeSnapshot snapshot = snapshots.get(type);
+        if(snapshot == null) {
+            return null;
+        }
+
+        return (T)snapshot.getIndex(indexField).get(normalize(key));
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @return every object of that type, or null if there is no snapshot of it
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getAll(final Class<T> type) {
+        final TypeSnapshot snapshot = snapshots.get(type);
+        if(snapshot == null) {
+            return null;
+        }
+
+        return new ArrayList<>((List<T>)Arrays.asList(snapshot.all));
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @return an iterator over every object of that type, or null if there is
+     *         no snapshot of it
+     */
+    public <T> CloseableIterator<T> getIterator(final Class<T> type) {
+        final TypeSnapshot snapshot = snapshots.get(type);
+        if(snapshot == null) {
+            return null;
+        }
+
+        return new SnapshotIterator<>(snapshot.all);
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @return when the HasAllStatus for the type's snapshot was written, or
+     *         null if there is no snapshot of it or the time isn't known
+     */
+    public Long getUpdated(final Class<?> type) {
+        final TypeSnapshot snapshot = snapshots.get(type);
+        return snapshot == null ? null : snapshot.updated;
+    }
+
+    /**
+     * @return the current version of the snapshots, which changes every time
+     *         a type is replaced or dropped
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Drops the snapshot of a type after it changed in a way that left it
+     * incomplete
+     *
+     * @param type
+     *            the OriannaObject type
+     */
+    public synchronized void invalidate(final Class<?> type) {
+        version++;
+        if(!snapshots.containsKey(type)) {
+            return;
+        }
+
+        checked.remove(type);
+        final Map<Class<?>, TypeSnapshot> next = new HashMap<>(snapshots);
+        next.remove(type);
+        snapshots = Collections.unmodifiableMap(next);
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @return whether there is a snapshot of the type that was checked against
+     *         the DB within the refresh interval
+     */
+    public boolean isFresh(final Class<?> type) {
+        return snapshots.containsKey(type) && isRecentlyChecked(type);
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @return whether the DB was found not to have a full set of the type
+     *         within the refresh interval
+     */
+    public boolean isMissing(final Class<?> type) {
+        return missing.contains(type) && isRecentlyChecked(type);
+    }
+
+    /**
+     * @param type
+     *            the OriannaObject type
+     * @return whether the DB was checked for the type within the refresh
+     *         interval
+     */
+    private boolean isRecentlyChecked(final Class<?> type) {
+        final Long time = checked.get(type);
+        return time != null && (refreshMillis <= 0L || System.currentTimeMillis() - time < refreshMillis);
+    }
+
+    /**
+     * Installs a full set that was loaded from the DB, unless the snapshots
+     * changed while it was being loaded
+     *
+     * @param type
+     *            the OriannaObject type
+     * @param objs
+     *            every object of that type
+     * @param updated
+     *            when the HasAllStatus for the set was written
+     * @param loadedVersion
+     *            the version from {@link #getVersion()} before loading began
+     * @return whether the set was installed
+     */
+    public synchronized boolean load(final Class<?> type, final List<?> objs, final Long updated, final long loadedVersion) {
+        if(version != loadedVersion) {
+            return false;
+        }
+
+        put(type, objs, updated);
+        return true;
+    }
+
+    /**
+     * Remembers that the DB has no full set of a type, dropping any snapshot
+     * of it, unless the snapshots changed while that was being checked
+     *
+     * @param type
+     *            the OriannaObject type
+     * @param loadedVersion
+     *            the version from {@link #getVersion()} before checking began
+     */
+    public synchronized void markMissing(final Class<?> type, final long loadedVersion) {
+        if(version == loadedVersion) {
+            invalidate(type);
+            missing.add(type);
+            checked(type);
+        }
+    }
+
+    /**
+     * Replaces the snapshot of a type with a new full set
+     *
+     * @param type
+     *            the OriannaObject type
+     * @param objs
+     *            every object of that type
+     * @param updated
+     *            when the HasAllStatus for the set was written
+     */
+    public synchronized void put(final Class<?> type, final List<?> objs, final Long updated) {
+        version++;
+        missing.remove(type);
+        final Map<Class<?>, TypeSnapshot> next = new HashMap<>(snapshots);
+        next.put(type, new TypeSnapshot(objs.toArray(), updated));
+        snapshots = Collections.unmodifiableMap(next);
+        checked(type);
+    }
+}
@@ -0,0 +1,18 @@
+package com.robrua.orianna.store;
+
+/**
+ * A group of stores and deletes that should be committed together. See
+ * {@link HibernateDB#inTransaction(UnitOfWork)}.
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public interface UnitOfWork {
+    /**
+     * @param db
+     *            the DB to do the work in. Every store and delete made on it
+     *            from this thread is part of the transaction.
+     * @throws Exception
+     *             if the work fails, which rolls back the transaction
+     */
+    public void run(HibernateDB db) throws Exception;
+}
@@ -0,0 +1,278 @@
+package com.robrua.orianna.store;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.id.Assigned;
+import org.hibernate.jdbc.Work;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+
+/**
+ * Writes entities with the database's native upsert instead of
+ * {@link Session#merge(Object)}, saving the select merge does first. Each
+ * entity class gets one batched statement per write.
+ *
+ * Only flat entities are upserted: ones with an assigned id and no
+ * associations, collections, components, or inheritance. Entities with child
+ * collections use generated ids for their children, so there is no key to
+ * upsert those rows on, and they keep going through merge. Supported dialects
+ * are MySQL (INSERT ... ON DUPLICATE KEY UPDATE), PostgreSQL 9.5+ (INSERT ...
+ * ON CONFLICT), and H2 (MERGE INTO ... KEY). Anything else falls back to
+ * merge.
+ *
+ * @author Rob Rua (robrua@alumni.cmu.edu)
+ */
+public class UpsertWriter {
+    /**
+     * The upsert statement for one entity class
+     */
+    private static class Upsert {
+        private final AbstractEntityPersister persister;
+        private final int[] properties;
+        private final String sql;
+
+        /**
+         * @param persister
+         *            the persister for the entity class
+         * @param properties
+         *            the indices of the properties to write, in statement
+         *            order after the id
+         * @param sql
+         *            the upsert statement
+         */
+        public Upsert(final AbstractEntityPersister persister, final int[] properties, final String sql) {
+            this.persister = persister;
+            this.properties = properties;
+            this.sql = sql;
+        }
+    }
+
+    private static final Upsert UNSUPPORTED = new Upsert(null, null, null);
+
+    /**
+     * @param values
+     *            the values to join
+     * @param format
+     *            the format for each value
+     * @return the formatted values, comma separated
+     */
+    private static String join(final List<String> values, final String format) {
+        final StringBuilder builder = new StringBuilder();
+        for(final String value : values) {
+            if(builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(String.format(format, value));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param dialect
+     *            the DB dialect
+     * @param table
+     *            the table name
+     * @param idColumns
+     *            the id columns
+     * @param columns
+     *            the other columns
+     * @return the upsert statement, or null if the dialect isn't supported
+     */
+    private static String upsertSQL(final Dialect dialect, final String table, final List<String> idColumns, final List<String> columns) {
+        final List<String> all = new ArrayList<>(idColumns);
+        all.addAll(columns);
+        final String insert = "insert into " + table + " (" + join(all, "%s") + ") values (" + join(all, "?") + ")";
+
+        if(dialect instanceof MySQLDialect) {
+            final String update = columns.isEmpty() ? join(idColumns, "%1$s = %1$s") : join(columns, "%1$s = values(%1$s)");
+            return insert + " on duplicate key update " + update;
+        }
+        else if(dialect instanceof PostgreSQL81Dialect) {
+            final String update = columns.isEmpty() ? "nothing" : "update set " + join(columns, "%1$s = excluded.%1$s");
+            return insert + " on conflict (" + join(idColumns, "%s") + ") do " + update;
+        }
+        else if(dialect instanceof H2Dialect) {
+            return "merge into " + table + " (" + join(all, "%s") + ") key (" + join(idColumns, "%s") + ") values (" + join(all, "?") + ")";
+        }
+        return null;
+    }
+
+    private final Map<Class<?>, Upsert> upserts;
+
+    /**
+     *
+     */
+    public UpsertWriter() {
+        upserts = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param session
+     *            the session that will do the write
+     * @param clazz
+     *            the entity class
+     * @return the upsert for that class, or UNSUPPORTED if it has to be merged
+     */
+    private Upsert getUpsert(final Session session, final Class<?> clazz) {
+        Upsert upsert = upserts.get(clazz);
+        if(upsert == null) {
+            upsert = prepare((SessionFactoryImplementor)session.getSessionFactory(), clazz);
+            upserts.put(clazz, upsert);
+        }
+        return upsert;
+    }
+
+    /**
+     * @param factory
+     *            the session factory
+     * @param clazz
+     *            the entity class
+     * @return the upsert for that class, or UNSUPPORTED if it has to be merged
+     */
+    private Upsert prepare(final SessionFactoryImplementor factory, final Class<?> clazz) {
+        final ClassMetadata metadata = factory.getClassMetadata(clazz);
+        if(!(metadata instanceof AbstractEntityPersister)) {
+            return UNSUPPORTED;
+        }
+
+        final AbstractEntityPersister persister = (AbstractEntityPersister)metadata;
+        if(persister.isInherited() || persister.getEntityMetamodel().hasSubclasses() || persister.isVersioned()
+                || !(persister.getIdentifierGenerator() instanceof Assigned) || persister.getIdentifierType().isComponentType()) {
+            return UNSUPPORTED;
+        }
+
+        final List<String> idColumns = new ArrayList<>();
+        for(final String column : persister.getIdentifierColumnNames()) {
+            idColumns.add(column);
+        }
+
+        final Type[] types = persister.getPropertyTypes();
+        final boolean[] insertable = persister.getPropertyInsertability();
+        final List<String> columns = new ArrayList<>();
+        final List<Integer> properties = new ArrayList<>();
+        for(int i = 0; i < types.length; i++) {
+            if(types[i].isAssociationType() || types[i].isComponentType()) {
+                return UNSUPPORTED;
+            }
+            if(!insertable[i]) {
+                continue;
+            }
+
+            for(final String column : persister.getPropertyColumnNames(i)) {
+                if(column == null) {
+                    // Formula properties have no column to write
+                    return UNSUPPORTED;
+                }
+                columns.add(column);
+            }
+            properties.add(i);
+        }
+
+        final String sql = upsertSQL(factory.getDialect(), persister.getTableName(), idColumns, columns);
+        if(sql == null) {
+            return UNSUPPORTED;
+        }
+
+        final int[] order = new int[properties.size()];
+        for(int i = 0; i < order.length; i++) {
+            order[i] = properties.get(i);
+        }
+        return new Upsert(persister, order, sql);
+    }
+
+    /**
+     * Upserts every object that can be upserted, one batch per entity class.
+     * Must be called inside a transaction on the session. Flushes the session
+     * first if it has queued actions.
+     *
+     * @param session
+     *            the session to write with
+     * @param objs
+     *            the objects to write
+     * @return the objects that couldn't be upserted and still need to be
+     *         merged
+     */
+    public List<Object> upsertAll(final Session session, final Collection<?> objs) {
+        final List<Object> remaining = new ArrayList<>();
+        final Map<Upsert, List<Object>> batches = new LinkedHashMap<>();
+        for(final Object obj : objs) {
+            final Upsert upsert = getUpsert(session, obj.getClass());
+            if(upsert == UNSUPPORTED) {
+                remaining.add(obj);
+                continue;
+            }
+
+            List<Object> batch = batches.get(upsert);
+            if(batch == null) {
+                batch = new ArrayList<>();
+                batches.put(upsert, batch);
+            }
+            batch.add(obj);
+        }
+
+        if(batches.isEmpty()) {
+            return remaining;
+        }
+
+        // The upserts go straight to JDBC, so anything Hibernate still has
+        // queued (like a delete of the same row earlier in a unit of work) has
+        // to reach the DB first or it would run after them at commit
+        if(!(session instanceof EventSource) || ((EventSource)session).getActionQueue().hasAnyQueuedActions()) {
+            session.flush();
+        }
+
+        final SessionImplementor implementor = (SessionImplementor)session;
+        session.doWork(new Work() {
+            @Override
+            public void execute(final Connection connection) throws SQLException {
+                for(final Map.Entry<Upsert, List<Object>> entry : batches.entrySet()) {
+                    final Upsert upsert = entry.getKey();
+                    final Type[] types = upsert.persister.getPropertyTypes();
+
+                    try(PreparedStatement statement = connection.prepareStatement(upsert.sql)) {
+                        for(final Object obj : entry.getValue()) {
+                            final Serializable id = upsert.persister.getIdentifier(obj, implementor);
+                            final Object[] values = upsert.persister.getPropertyValues(obj);
+
+                            int index = 1;
+                            upsert.persister.getIdentifierType().nullSafeSet(statement, id, index, implementor);
+                            index += upsert.persister.getIdentifierColumnNames().length;
+                            for(final int property : upsert.properties) {
+                                types[property].nullSafeSet(statement, values[property], index, implementor);
+                                index += upsert.persister.getPropertyColumnNames(property).length;
+                            }
+                            statement.addBatch();
+
+                            // Drop any copy the session already has so later
+                            // reads see what was just written
+                            final Object managed = implementor.getPersistenceContext().getEntity(implementor.generateEntityKey(id, upsert.persister));
+                            if(managed != null) {
+                                session.evict(managed);
+                            }
+                        }
+                        statement.executeBatch();
+                    }
+                }
+            }
+        });
+        return remaining;
+    }
+}